@@ -29,15 +29,8 @@ public class ResizeDemo {
 
         Stopwatch sw = new Stopwatch();
 
-        for (int i = 0; i < removeRows; i++) {
-            int[] horizontalSeam = sc.findHorizontalSeam();
-            sc.removeHorizontalSeam(horizontalSeam);
-        }
-
-        for (int i = 0; i < removeColumns; i++) {
-            int[] verticalSeam = sc.findVerticalSeam();
-            sc.removeVerticalSeam(verticalSeam);
-        }
+        sc.removeHorizontalSeams(removeRows);
+        sc.removeVerticalSeams(removeColumns);
         Picture outputImg = sc.picture();
 
         System.out.printf("new image size is %d columns by %d rows\n", sc.width(), sc.height());
@@ -1,13 +1,50 @@
 import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 
 public class SeamCarver {
+    // pictures with at least this many pixels compute energies, transposes
+    // and each row of the seam search in parallel on the common ForkJoinPool
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 1 << 20;
+
+    // columns handled by one task within a row
+    private static final int BLOCK = 1024;
+
+    // dimensions of the stored pixels; when transposed is set, rows of the
+    // stored arrays are columns of the picture. Seams are always found and
+    // removed vertically in storage, so the arrays are only transposed when
+    // the caller switches between horizontal and vertical operations.
     private int height;
     private int width;
+    private boolean transposed;
+
+    // pixels as packed 0xRRGGBB ints and their energies, which are whole
+    // numbers, row i starting at i * stride; removing a seam compacts each
+    // row in place, so the stride stays fixed while width shrinks
+    private int stride;
+    private int[] pixels;
+    private int[] energies;
+
+    // buffers transpose() writes into, allocated on first use
+    private int[] sparePixels;
+    private int[] spareEnergies;
+
+    // seam search buffers, allocated on first use and sized for the original
+    // picture; edgeTo has the same layout as pixels and holds the column
+    // offset (-1, 0 or +1) of the previous pixel of the cheapest seam
+    private double[] distTo;
+    private double[] min;
+    private byte[] edgeTo;
+
+    // removeCheapSeams() buffers, allocated on first use like the above;
+    // taken is all false between passes
+    private long[] ends;
+    private boolean[] taken;
 
-    private byte[] red;
-    private byte[] green;
-    private byte[] blue;
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
 
     // create a seam carver object based on the given picture
     public SeamCarver(Picture picture) {
@@ -16,8 +53,64 @@ public class SeamCarver {
 
         height = picture.height();
         width = picture.width();
+        stride = width;
 
         copyPicture(picture);
+
+        energies = new int[height * width];
+        computeEnergies();
+    }
+
+    // create a seam carver object from width * height ARGB pixels in row-major
+    // order; alpha is ignored
+    public SeamCarver(int[] argb, int width, int height) {
+        if (argb == null)
+            throw new java.lang.NullPointerException();
+
+        if (width < 1 || height < 1 || argb.length != (long) width * height)
+            throw new java.lang.IllegalArgumentException();
+
+        this.height = height;
+        this.width = width;
+        stride = width;
+
+        pixels = new int[height * width];
+
+        for (int i = 0; i < pixels.length; ++i)
+            pixels[i] = argb[i] & 0xffffff;
+
+        energies = new int[height * width];
+        computeEnergies();
+    }
+
+    // create a seam carver object from an image, reading its pixels in bulk
+    public SeamCarver(BufferedImage image) {
+        this(image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth()), image.getWidth(), image.getHeight());
+    }
+
+    // carver over a compact copy of the stored pixels and energies of another
+    private SeamCarver(SeamCarver carver) {
+        height = carver.height;
+        width = carver.width;
+        stride = width;
+        parallelThreshold = carver.parallelThreshold;
+
+        pixels = new int[height * width];
+        energies = new int[height * width];
+
+        for (int i = 0; i < height; ++i) {
+            System.arraycopy(carver.pixels, carver.getIndex(i, 0), pixels, getIndex(i, 0), width);
+            System.arraycopy(carver.energies, carver.getIndex(i, 0), energies, getIndex(i, 0), width);
+        }
+    }
+
+    // sets the number of pixels from which work is split across cores;
+    // seams are the same either way
+    public void setParallelThreshold(int pixels) {
+        if (pixels < 0)
+            throw new java.lang.IllegalArgumentException();
+
+        parallelThreshold = pixels;
     }
 
     // energy of pixel at column x and row y
@@ -25,7 +118,12 @@ public class SeamCarver {
         if (i < 0 || i > height() - 1 || j < 0 || j > width() - 1)
             throw new java.lang.IndexOutOfBoundsException();
 
-        if (i == 0 || i == height() - 1 || j == 0 || j == width() - 1)
+        return transposed ? energies[getIndex(j, i)] : energies[getIndex(i, j)];
+    }
+
+    // energy of the stored pixel at row i and column j
+    private int computeEnergy(int i, int j) {
+        if (i == 0 || i == height - 1 || j == 0 || j == width - 1)
             return 195075;
 
         int left = getIndex(i, j - 1);
@@ -39,104 +137,425 @@ public class SeamCarver {
 
     // sequence of indices for horizontal seam
     public int[] findHorizontalSeam() {
-        transpose();
-        int [] seam = findVerticalSeam();
-        transpose();
-
-        return seam;
+        orient(true);
+        return findSeam();
     }
 
     // sequence of indices for vertical seam
     public int[] findVerticalSeam() {
-        int[] distTo = new int[width()];
-        int[] min = new int[width()];
-        int[][] edgeTo = new int[height()][width()];
+        orient(false);
+        return findSeam();
+    }
 
-        for (int j = 0; j < width(); ++j)
-            distTo[j] = (int) energy(j, 0);
+    // vertical seam of the stored pixels
+    private int[] findSeam() {
+        search();
+        return trace(argmin(distTo, width), new int[height], null);
+    }
 
-        for (int i = 1; i < height(); ++i) {
-            for (int j = 0; j < width(); ++j) {
-                min[j] = Integer.MAX_VALUE;
+    // fills edgeTo and leaves the seam costs ending in each column of the last
+    // row in distTo[0..width - 1]; every entry of a row depends only on the
+    // previous row, so the columns of a row are split into blocks that are
+    // relaxed in parallel, computing exactly what the serial loop does
+    private void search() {
+        if (edgeTo == null) {
+            int size = Math.max(height, width);
+            distTo = new double[size];
+            min = new double[size];
+            edgeTo = new byte[pixels.length];
+        }
 
-                for (int col = j - 1; col <= j + 1; ++col) {
+        for (int j = 0; j < width; ++j)
+            distTo[j] = energies[j];
 
-                    if (col < 0 || col > width() - 1)
-                        continue;
+        int blocks = (width + BLOCK - 1) / BLOCK;
+        boolean parallel = isParallel() && blocks > 1;
 
-                    int distance = distTo[col] + (int) energy(j, i);
+        for (int i = 1; i < height; ++i) {
+            int row = i;
+            double[] from = distTo, to = min;
 
-                    if (distance < min[j]) {
-                        min[j] = distance;
-                        edgeTo[i][j] = col;
-                    }
-                }
-            }
+            if (parallel)
+                IntStream.range(0, blocks).parallel().forEach(b -> relax(row, b * BLOCK, Math.min(width, (b + 1) * BLOCK), from, to));
+            else
+                relax(row, 0, width, from, to);
 
-            System.arraycopy(min, 0, distTo, 0, width());
+            min = distTo;
+            distTo = to;
         }
+    }
 
-        int index = argmin(distTo);
-        int[] seams = new int[height()];
+    // follows edgeTo up from column end of the last row; returns null as soon
+    // as the seam reaches a pixel marked in taken (if given)
+    private int[] trace(int end, int[] seam, boolean[] taken) {
+        int index = end;
 
-        for (int i = height() - 1; i >= 0; --i) {
-            seams[i] = index;
-            index = edgeTo[i][index];
+        for (int i = height - 1; i >= 0; --i) {
+            if (taken != null && taken[getIndex(i, index)])
+                return null;
+
+            seam[i] = index;
+            index += edgeTo[getIndex(i, index)];
         }
 
-        return seams;
+        return seam;
+    }
+
+    // relaxes columns lo to hi - 1 of row i from the distances of row i - 1
+    private void relax(int i, int lo, int hi, double[] distTo, double[] min) {
+        for (int j = lo; j < hi; ++j) {
+            min[j] = Double.POSITIVE_INFINITY;
+            double energy = energies[getIndex(i, j)];
+
+            for (int col = j - 1; col <= j + 1; ++col) {
+
+                if (col < 0 || col > width - 1)
+                    continue;
+
+                double distance = distTo[col] + energy;
+
+                if (distance < min[j]) {
+                    min[j] = distance;
+                    edgeTo[getIndex(i, j)] = (byte) (col - j);
+                }
+            }
+        }
     }
 
     // height of current picture
     public int height() {
-        return height;
+        return transposed ? width : height;
     }
 
     // current picture
     public Picture picture() {
         Picture picture = new Picture(width(), height());
 
-        for (int i = 0; i < height(); ++i)
-            for (int j = 0; j < width(); ++j) {
+        for (int i = 0; i < height; ++i)
+            for (int j = 0; j < width; ++j) {
                 Color color = color(i, j);
-                picture.set(j, i, color);
+
+                if (transposed)
+                    picture.set(i, j, color);
+                else
+                    picture.set(j, i, color);
             }
 
         return picture;
     }
 
+    // insert k horizontal seams, duplicating the k seams that would be removed
+    // first, so the picture gets k rows taller
+    public void insertHorizontalSeams(int k) {
+        orient(true);
+        insertSeams(k);
+    }
+
+    // insert k vertical seams, duplicating the k seams that would be removed
+    // first, so the picture gets k columns wider
+    public void insertVerticalSeams(int k) {
+        orient(false);
+        insertSeams(k);
+    }
+
+    // current picture as opaque ARGB pixels in row-major order
+    public int[] toARGB() {
+        int[] argb = new int[height * width];
+
+        if (transposed) {
+            for (int i = 0; i < height; ++i)
+                for (int j = 0; j < width; ++j)
+                    argb[j * height + i] = 0xff000000 | pixels[getIndex(i, j)];
+        }
+        else {
+            for (int i = 0; i < height; ++i)
+                System.arraycopy(pixels, getIndex(i, 0), argb, i * width, width);
+
+            for (int i = 0; i < argb.length; ++i)
+                argb[i] |= 0xff000000;
+        }
+
+        return argb;
+    }
+
+    // current picture as an image, written in bulk
+    public BufferedImage toBufferedImage() {
+        BufferedImage image = new BufferedImage(width(), height(), BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, width(), height(), toARGB(), 0, width());
+
+        return image;
+    }
+
     // remove horizontal seam from current picture
     public void removeHorizontalSeam(int[] seam) {
-        transpose();
-        removeVerticalSeam(seam);
-        transpose();
+        orient(true);
+        removeSeam(seam);
     }
 
     // remove vertical seam from current picture
     public void removeVerticalSeam(int[] seam) {
+        orient(false);
+        removeSeam(seam);
+    }
+
+    // width of current picture
+    public int width() {
+        return transposed ? height : width;
+    }
+
+    // remove k horizontal seams, each the cheapest of the current picture
+    public void removeHorizontalSeams(int k) {
+        removeHorizontalSeams(k, 1);
+    }
+
+    // remove k horizontal seams, taking up to perPass non-crossing seams from
+    // each seam search; more than one per pass is faster but only approximates
+    // removing the cheapest seam k times
+    public void removeHorizontalSeams(int k, int perPass) {
+        orient(true);
+        removeSeams(k, perPass);
+    }
+
+    // remove k vertical seams, each the cheapest of the current picture
+    public void removeVerticalSeams(int k) {
+        removeVerticalSeams(k, 1);
+    }
+
+    // remove k vertical seams, taking up to perPass non-crossing seams from
+    // each seam search; more than one per pass is faster but only approximates
+    // removing the cheapest seam k times
+    public void removeVerticalSeams(int k, int perPass) {
+        orient(false);
+        removeSeams(k, perPass);
+    }
+
+    // removes a vertical seam of the stored pixels
+    private void removeSeam(int[] seam) {
         if (seam == null)
             throw new java.lang.NullPointerException();
 
-        if (width() < 2 || seam.length != height())
+        if (width < 2 || seam.length != height)
             throw new java.lang.IllegalArgumentException();
 
+        // the rows are compacted in place, so reject a bad seam before
+        // touching any of them
+        for (int i = 0; i < height; ++i) {
+            if (seam[i] < 0 || seam[i] > width - 1)
+                throw new java.lang.IllegalArgumentException();
+
+            if (i > 0 && Math.abs(seam[i] - seam[i - 1]) > 1)
+                throw new java.lang.IllegalArgumentException();
+        }
+
         --width;
 
-        red = shiftArray(red, seam);
-        green = shiftArray(green, seam);
-        blue = shiftArray(blue, seam);
+        for (int i = 0; i < height; ++i) {
+            int index = getIndex(i, seam[i]);
+
+            System.arraycopy(pixels, index + 1, pixels, index, width - seam[i]);
+            System.arraycopy(energies, index + 1, energies, index, width - seam[i]);
+        }
+
+        updateEnergy(seam);
     }
 
-    // width of current picture
-    public int width() {
-        return width;
+    // removes k vertical seams of the stored pixels
+    private void removeSeams(int k, int perPass) {
+        if (k < 0 || k > width - 1 || perPass < 1)
+            throw new java.lang.IllegalArgumentException();
+
+        while (k > 0) {
+            if (perPass == 1 || k == 1) {
+                removeSeam(findSeam());
+                --k;
+            }
+            else
+                k -= removeCheapSeams(Math.min(k, perPass));
+        }
+    }
+
+    // runs one seam search and removes up to count seams ending at the
+    // cheapest columns of the last row, skipping any seam that shares a pixel
+    // with or crosses one already taken. Non-crossing seams keep their
+    // left-to-right order in every row, so removing them together is the same
+    // as removing them one after another. Returns the number removed.
+    private int removeCheapSeams(int count) {
+        search();
+
+        if (taken == null) {
+            ends = new long[distTo.length];
+            taken = new boolean[pixels.length];
+        }
+
+        // seam costs are sums of integer energies, each at most 390150, so
+        // cost * 2^bits + column stays far below 2^63 and sorting the packed
+        // values orders the columns by cost, leftmost first on ties
+        int bits = 32 - Integer.numberOfLeadingZeros(width);
+
+        for (int j = 0; j < width; ++j)
+            ends[j] = (long) distTo[j] << bits | j;
+
+        Arrays.sort(ends, 0, width);
+
+        int[][] seams = new int[count][];
+        int found = 0;
+
+        for (int c = 0; c < width && found < count; ++c) {
+            int[] seam = trace((int) (ends[c] & ((1L << bits) - 1)), new int[height], taken);
+
+            if (seam == null || crosses(seam, seams, found))
+                continue;
+
+            for (int i = 0; i < height; ++i)
+                taken[getIndex(i, seam[i])] = true;
+
+            seams[found++] = seam;
+        }
+
+        for (int s = 0; s < found; ++s)
+            for (int i = 0; i < height; ++i)
+                taken[getIndex(i, seams[s][i])] = false;
+
+        if (found == 1) {
+            removeSeam(seams[0]);
+            return 1;
+        }
+
+        // compact each row around its removed pixels, then recompute the
+        // energies, as almost every row has changed in several places
+        int[] columns = new int[found];
+
+        for (int i = 0; i < height; ++i) {
+            for (int s = 0; s < found; ++s)
+                columns[s] = seams[s][i];
+
+            Arrays.sort(columns);
+
+            int row = getIndex(i, 0);
+
+            for (int s = 0; s < found; ++s) {
+                int end = s + 1 < found ? columns[s + 1] : width;
+                System.arraycopy(pixels, row + columns[s] + 1, pixels, row + columns[s] - s, end - columns[s] - 1);
+            }
+        }
+
+        width -= found;
+        computeEnergies();
+
+        return found;
+    }
+
+    // whether seam crosses any of the first n seams, i.e. lies on different
+    // sides of it in different rows
+    private boolean crosses(int[] seam, int[][] seams, int n) {
+        for (int s = 0; s < n; ++s) {
+            boolean left = seam[0] < seams[s][0];
+
+            for (int i = 1; i < height; ++i)
+                if (seam[i] < seams[s][i] != left)
+                    return true;
+        }
+
+        return false;
+    }
+
+    // carves k seams off a copy, mapping each back to the stored columns it
+    // came from, then widens every row by placing after each of those pixels
+    // the average of it and its right neighbour. Inserting the seams one at a
+    // time would find the same seam again and again.
+    private void insertSeams(int k) {
+        if (k < 0 || k > width - 1)
+            throw new java.lang.IllegalArgumentException();
+
+        if (k == 0)
+            return;
+
+        SeamCarver copy = new SeamCarver(this);
+        boolean[] selected = new boolean[height * width];
+        int[][] columns = new int[height][width];
+
+        for (int i = 0; i < height; ++i)
+            for (int j = 0; j < width; ++j)
+                columns[i][j] = j;
+
+        for (int step = 0; step < k; ++step) {
+            int[] seam = copy.findSeam();
+
+            for (int i = 0; i < height; ++i) {
+                selected[i * width + columns[i][seam[i]]] = true;
+                System.arraycopy(columns[i], seam[i] + 1, columns[i], seam[i], width - step - seam[i] - 1);
+            }
+
+            copy.removeSeam(seam);
+        }
+
+        int[] widened = new int[height * (width + k)];
+        int to = 0;
+
+        for (int i = 0; i < height; ++i)
+            for (int j = 0; j < width; ++j) {
+                int pixel = pixels[getIndex(i, j)];
+                widened[to++] = pixel;
+
+                if (selected[i * width + j])
+                    widened[to++] = j < width - 1 ? average(pixel, pixels[getIndex(i, j + 1)]) : pixel;
+            }
+
+        width += k;
+        stride = width;
+        pixels = widened;
+        energies = new int[height * width];
+        computeEnergies();
+
+        // all sized for the smaller picture
+        sparePixels = null;
+        spareEnergies = null;
+        distTo = null;
+        min = null;
+        edgeTo = null;
+        ends = null;
+        taken = null;
+    }
+
+    // channel-wise average of two 0xRRGGBB pixels
+    private int average(int a, int b) {
+        int red = (((a >> 16) & 0xff) + ((b >> 16) & 0xff)) / 2;
+        int green = (((a >> 8) & 0xff) + ((b >> 8) & 0xff)) / 2;
+        int blue = ((a & 0xff) + (b & 0xff)) / 2;
+
+        return red << 16 | green << 8 | blue;
+    }
+
+    private void computeEnergies() {
+        rows(i -> {
+            for (int j = 0; j < width; ++j)
+                energies[getIndex(i, j)] = computeEnergy(i, j);
+        });
+    }
+
+    // stores the pixels so that seams of the requested direction are vertical in storage
+    private void orient(boolean horizontal) {
+        if (transposed != horizontal)
+            transpose();
+    }
+
+    private boolean isParallel() {
+        return (long) height * width >= parallelThreshold;
+    }
+
+    // runs action on every stored row, in parallel for large pictures
+    private void rows(IntConsumer action) {
+        if (isParallel())
+            IntStream.range(0, height).parallel().forEach(action);
+        else
+            IntStream.range(0, height).forEach(action);
     }
 
-    private int argmin(int[] array) {
+    private int argmin(double[] array, int length) {
         int index = -1;
-        int min = Integer.MAX_VALUE;
+        double min = Double.POSITIVE_INFINITY;
 
-        for (int i = 0; i < array.length; ++i)
+        for (int i = 0; i < length; ++i)
             if (array[i] < min) {
                 index = i;
                 min = array[i];
@@ -145,91 +564,96 @@ public class SeamCarver {
         return index;
     }
 
-    private int byteToInt(byte b) {
-        return ((int) b) & 0xff;
-    }
-
     private Color color(int i, int j) {
-        int index = getIndex(i, j);
-        return new Color(byteToInt(red[index]),
-                byteToInt(green[index]),
-                byteToInt(blue[index]));
+        return new Color(pixels[getIndex(i, j)]);
     }
 
     private void copyPicture(Picture picture) {
-
-        red = new byte[height() * width()];
-        green = new byte[height() * width()];
-        blue = new byte[height() * width()];
+        pixels = new int[height * width];
 
         int index = 0;
 
-        for (int i = 0; i < height(); ++i)
-            for (int j = 0; j < width(); ++j) {
-                Color color = picture.get(j, i);
-
-                red[index] = (byte) (color.getRed());
-                green[index] = (byte) (color.getGreen());
-                blue[index] = (byte) (color.getBlue());
-
-                ++index;
-            }
+        for (int i = 0; i < height; ++i)
+            for (int j = 0; j < width; ++j)
+                pixels[index++] = picture.get(j, i).getRGB() & 0xffffff;
     }
 
     private int getIndex(int i, int j) {
-        return i * width() + j;
+        return i * stride + j;
     }
 
     private int gradient(int a, int b) {
+        int x = pixels[a], y = pixels[b];
         int gradient = 0;
 
-        gradient += square(byteToInt(red[b]) - byteToInt(red[a]));
-        gradient += square(byteToInt(green[b]) - byteToInt(green[a]));
-        gradient += square(byteToInt(blue[b]) - byteToInt(blue[a]));
+        gradient += square(((y >> 16) & 0xff) - ((x >> 16) & 0xff));
+        gradient += square(((y >> 8) & 0xff) - ((x >> 8) & 0xff));
+        gradient += square((y & 0xff) - (x & 0xff));
 
         return gradient;
     }
 
-    private byte[] shiftArray(byte[] array, int[] seam) {  // TODO: use System.arraycopy
-        byte[] tmp = new byte[height() * width()];
+    // after a vertical seam removal only the pixels that were next to the seam
+    // (left, right, above or below it) and the new last column have different
+    // neighbours; since consecutive seam entries differ by at most one, that
+    // is a handful of pixels per row
+    private void updateEnergy(int[] seam) {
+        for (int i = 0; i < height; ++i) {
+            int from = seam[i], to = seam[i];
+
+            if (i > 0) {
+                from = Math.min(from, seam[i - 1]);
+                to = Math.max(to, seam[i - 1]);
+            }
 
-        for (int i = 0; i < height(); ++i) {
-            int offset = 0;
+            if (i < height - 1) {
+                from = Math.min(from, seam[i + 1]);
+                to = Math.max(to, seam[i + 1]);
+            }
 
-            for (int j = 0; j < width(); ++j) {
-                if (seam[i] == j)
-                    ++offset;
+            for (int j = Math.max(0, from - 1); j <= Math.min(width - 1, to); ++j)
+                energies[getIndex(i, j)] = computeEnergy(i, j);
 
-                tmp[getIndex(i, j)] = array[i * (width() + 1) + j + offset];
-            }
+            energies[getIndex(i, width - 1)] = computeEnergy(i, width - 1);
         }
-
-        return tmp;
     }
 
     private int square(int x) {
         return x * x;
     }
 
+    // writes the transposed pixels and energies into the spare buffers and
+    // swaps them in; both pairs hold the original picture, so they are large
+    // enough for any later size
     private void transpose() {
-        red = transposeArray(red);
-        green = transposeArray(green);
-        blue = transposeArray(blue);
+        if (sparePixels == null) {
+            sparePixels = new int[pixels.length];
+            spareEnergies = new int[energies.length];
+        }
 
-        int tmp = height;
-        height = width;
-        width = tmp;
-    }
+        rows(i -> {
+            for (int j = 0; j < width; ++j) {
+                int from = getIndex(i, j);
 
-    private byte[] transposeArray(byte[] array) {  // TODO: transpose in-place
+                // the energy function is symmetric in rows and columns, so
+                // energies transpose with the pixels
+                sparePixels[j * height + i] = pixels[from];
+                spareEnergies[j * height + i] = energies[from];
+            }
+        });
 
-        byte[] tmp = new byte[height() * width()];
+        int[] pixelsTmp = pixels;
+        pixels = sparePixels;
+        sparePixels = pixelsTmp;
 
-        for (int i = 0; i < height(); ++i)
-            for (int j = 0; j < width(); ++j) {
-                tmp[j * height() + i] = array[getIndex(i, j)];
-            }
+        int[] energiesTmp = energies;
+        energies = spareEnergies;
+        spareEnergies = energiesTmp;
 
-        return tmp;
+        int tmp = height;
+        height = width;
+        width = tmp;
+        stride = width;
+        transposed = !transposed;
     }
 }
@@ -0,0 +1,237 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+
+// the order in which SeamCarver removes every seam of a picture in one
+// direction, as the step at which each pixel goes: steps 0 to n - 2 remove a
+// seam each and the last pixel of every row (or column) is numbered n - 1.
+// Carving to size m keeps exactly the pixels removed at step n - m or later,
+// so any width (or height) is one pass over the picture.
+public class SeamIndex {
+    private static final int MAGIC = 0x53434931;  // "SCI1"
+    private static final int HORIZONTAL = 1;
+    private static final int WIDE = 2;  // steps stored as ints rather than chars
+
+    private final int width;
+    private final int height;
+    private final boolean horizontal;
+    private final int[] steps;  // step of pixel (x, y) at y * width + x
+
+    private SeamIndex(int width, int height, boolean horizontal, int[] steps) {
+        this.width = width;
+        this.height = height;
+        this.horizontal = horizontal;
+        this.steps = steps;
+    }
+
+    // removes every vertical seam of picture in turn, for retargeting its width
+    public static SeamIndex vertical(Picture picture) {
+        return build(picture, false);
+    }
+
+    // removes every horizontal seam of picture in turn, for retargeting its height
+    public static SeamIndex horizontal(Picture picture) {
+        return build(picture, true);
+    }
+
+    // each seam is in current coordinates; lines (rows for vertical seams)
+    // keep the original positions of their remaining pixels, compacted in
+    // step with the carver, to map it back
+    private static SeamIndex build(Picture picture, boolean horizontal) {
+        if (picture == null)
+            throw new java.lang.NullPointerException();
+
+        int width = picture.width();
+        int height = picture.height();
+        int lines = horizontal ? width : height;
+        int length = horizontal ? height : width;
+
+        SeamCarver carver = new SeamCarver(picture);
+        int[] steps = new int[width * height];
+        int[][] positions = new int[lines][length];
+
+        for (int line = 0; line < lines; ++line)
+            for (int p = 0; p < length; ++p)
+                positions[line][p] = p;
+
+        for (int step = 0; step < length; ++step) {
+            int[] seam = new int[lines];
+
+            if (step < length - 1)
+                seam = horizontal ? carver.findHorizontalSeam() : carver.findVerticalSeam();
+
+            for (int line = 0; line < lines; ++line) {
+                int p = positions[line][seam[line]];
+                steps[horizontal ? p * width + line : line * width + p] = step;
+
+                System.arraycopy(positions[line], seam[line] + 1, positions[line], seam[line], length - step - seam[line] - 1);
+            }
+
+            if (step < length - 1) {
+                if (horizontal)
+                    carver.removeHorizontalSeam(seam);
+                else
+                    carver.removeVerticalSeam(seam);
+            }
+        }
+
+        return new SeamIndex(width, height, horizontal, steps);
+    }
+
+    // checks the header against the file length and that every row (or
+    // column) numbers its pixels with each step from 0 to n - 1 once, so
+    // resize() always fills the carved picture exactly
+    public static SeamIndex load(String path) {
+        if (path == null)
+            throw new java.lang.NullPointerException();
+
+        try {
+            FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+
+            try {
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+                if (buffer.remaining() < 16 || buffer.getInt() != MAGIC)
+                    throw new java.lang.IllegalArgumentException("not a seam index: " + path);
+
+                int flags = buffer.getInt();
+                int width = buffer.getInt();
+                int height = buffer.getInt();
+                boolean horizontal = (flags & HORIZONTAL) != 0;
+                boolean wide = (flags & WIDE) != 0;
+
+                if ((flags & ~(HORIZONTAL | WIDE)) != 0 || width < 1 || height < 1
+                        || 16 + (long) width * height * (wide ? 4 : 2) != channel.size())
+                    throw new java.lang.IllegalArgumentException("not a seam index: " + path);
+
+                int[] steps = new int[width * height];
+
+                if (wide)
+                    buffer.asIntBuffer().get(steps);
+                else {
+                    for (int i = 0; i < steps.length; ++i)
+                        steps[i] = buffer.getChar();
+                }
+
+                if (!isValid(width, height, horizontal, steps))
+                    throw new java.lang.IllegalArgumentException("not a seam index: " + path);
+
+                return new SeamIndex(width, height, horizontal, steps);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("could not read " + path, e);
+        }
+    }
+
+    // each line must hold every step in [0, length) exactly once; seen[step]
+    // holds the last line that used it, offset by one
+    private static boolean isValid(int width, int height, boolean horizontal, int[] steps) {
+        int lines = horizontal ? width : height;
+        int length = horizontal ? height : width;
+        int[] seen = new int[length];
+
+        for (int line = 0; line < lines; ++line) {
+            for (int p = 0; p < length; ++p) {
+                int step = steps[horizontal ? p * width + line : line * width + p];
+
+                if (step < 0 || step >= length || seen[step] == line + 1)
+                    return false;
+
+                seen[step] = line + 1;
+            }
+        }
+
+        return true;
+    }
+
+    // 2 bytes per pixel unless the carved dimension exceeds 65536
+    public void save(String path) {
+        if (path == null)
+            throw new java.lang.NullPointerException();
+
+        boolean wide = (horizontal ? height : width) > 1 << 16;
+
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16));
+
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt((horizontal ? HORIZONTAL : 0) | (wide ? WIDE : 0));
+                out.writeInt(width);
+                out.writeInt(height);
+
+                for (int step : steps) {
+                    if (wide)
+                        out.writeInt(step);
+                    else
+                        out.writeChar(step);
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("could not write " + path, e);
+        }
+    }
+
+    // width of the indexed picture
+    public int width() {
+        return width;
+    }
+
+    // height of the indexed picture
+    public int height() {
+        return height;
+    }
+
+    // whether the index removes horizontal seams
+    public boolean isHorizontal() {
+        return horizontal;
+    }
+
+    // step at which pixel at column x and row y is removed
+    public int step(int x, int y) {
+        if (x < 0 || x > width - 1 || y < 0 || y > height - 1)
+            throw new java.lang.IndexOutOfBoundsException();
+
+        return steps[y * width + x];
+    }
+
+    // the indexed picture carved to the given width (or height, for a
+    // horizontal index); the same as removing the cheapest seam repeatedly
+    public Picture resize(Picture picture, int size) {
+        if (picture == null)
+            throw new java.lang.NullPointerException();
+
+        int length = horizontal ? height : width;
+
+        if (picture.width() != width || picture.height() != height || size < 1 || size > length)
+            throw new java.lang.IllegalArgumentException();
+
+        int first = length - size;
+        Picture resized = horizontal ? new Picture(width, size) : new Picture(size, height);
+
+        if (horizontal) {
+            for (int x = 0; x < width; ++x)
+                for (int y = 0, to = 0; y < height; ++y)
+                    if (steps[y * width + x] >= first)
+                        resized.set(x, to++, picture.get(x, y));
+        }
+        else {
+            for (int y = 0; y < height; ++y)
+                for (int x = 0, to = 0; x < width; ++x)
+                    if (steps[y * width + x] >= first)
+                        resized.set(to++, y, picture.get(x, y));
+        }
+
+        return resized;
+    }
+}
@@ -0,0 +1,345 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+
+// precomputed ancestors of every vertex. The ancestors of v, sorted, are
+// packed as (ancestor, distance) int pairs in entries[2 * offsets[v]..2 * offsets[v + 1]),
+// so a shortest ancestral path query becomes a merge of two short lists.
+// Worth it when ancestor sets are small, as in a shallow hypernym DAG: the
+// index costs 8 bytes per (vertex, ancestor) pair.
+public class AncestorIndex {
+    private static final int MAGIC = 0x53414931;  // "SAI1"
+    private static final int BLOCK = 4096;
+    private static final int SAMPLES = 4096;  // random pairs timed to estimate query latency
+
+    private final int[] offsets;
+    private final int[] entries;
+    private final long buildMillis;
+    private final double queryNanos;
+    private boolean[] stale;  // vertices whose ancestors changed after the build
+
+    private AncestorIndex(int[] offsets, int[] entries, long buildMillis) {
+        this.offsets = offsets;
+        this.entries = entries;
+        this.buildMillis = buildMillis;
+        this.queryNanos = sampleQueries();
+    }
+
+    // mean time of a single-pair query over SAMPLES random pairs, timed on a
+    // second pass so that the first one warms up the code and the caches
+    private double sampleQueries() {
+        if (V() == 0)
+            return 0;
+
+        java.util.Random random = new java.util.Random(0);
+        int[] v = new int[1], w = new int[1];
+        int[] pairs = new int[2 * SAMPLES];
+        long elapsed = 0;
+        int sink = 0;
+
+        for (int i = 0; i < pairs.length; i++)
+            pairs[i] = random.nextInt(V());
+
+        for (int pass = 0; pass < 2; pass++) {
+            long start = System.nanoTime();
+
+            for (int i = 0; i < SAMPLES; i++) {
+                v[0] = pairs[2 * i];
+                w[0] = pairs[2 * i + 1];
+                sink += query(v, w).length();
+            }
+
+            elapsed = System.nanoTime() - start;
+        }
+
+        // keeps the loop from being optimized away
+        return sink == Integer.MIN_VALUE ? 0 : (double) elapsed / SAMPLES;
+    }
+
+    // runs one BFS per vertex, in parallel over blocks of vertices
+    public static AncestorIndex build(CompactDigraph G) {
+        if (G == null)
+            throw new java.lang.NullPointerException();
+
+        long start = System.currentTimeMillis();
+        int V = G.V();
+        int blocks = (V + BLOCK - 1) / BLOCK;
+        int[][] packed = new int[blocks][];
+        int[] offsets = new int[V + 1];
+
+        IntStream.range(0, blocks).parallel().forEach(b -> packed[b] = buildBlock(G, b * BLOCK, Math.min(V, (b + 1) * BLOCK), offsets));
+
+        for (int v = 0; v < V; v++)
+            offsets[v + 1] += offsets[v];
+
+        int[] entries = new int[2 * offsets[V]];
+        for (int b = 0; b < blocks; b++)
+            System.arraycopy(packed[b], 0, entries, 2 * offsets[b * BLOCK], packed[b].length);
+
+        return new AncestorIndex(offsets, entries, System.currentTimeMillis() - start);
+    }
+
+    // packs the ancestors of vertices [from, to) and records their counts in sizes[v + 1]
+    private static int[] buildBlock(CompactDigraph G, int from, int to, int[] sizes) {
+        int[] marked = new int[G.V()];
+        int[] distTo = new int[G.V()];
+        int[] queue = new int[G.V()];
+        int[] packed = new int[64];
+        int count = 0;
+
+        for (int s = from; s < to; s++) {
+            int stamp = s - from + 1;
+            int head = 0, tail = 0;
+
+            marked[s] = stamp;
+            distTo[s] = 0;
+            queue[tail++] = s;
+
+            while (head < tail) {
+                int v = queue[head++];
+
+                for (int i = G.begin(v), end = G.end(v); i < end; i++) {
+                    int w = G.target(i);
+
+                    if (marked[w] != stamp) {
+                        marked[w] = stamp;
+                        distTo[w] = distTo[v] + 1;
+                        queue[tail++] = w;
+                    }
+                }
+            }
+
+            Arrays.sort(queue, 0, tail);
+
+            if (2 * (count + tail) > packed.length)
+                packed = Arrays.copyOf(packed, Math.max(2 * packed.length, 2 * (count + tail)));
+
+            for (int i = 0; i < tail; i++) {
+                packed[2 * count] = queue[i];
+                packed[2 * count + 1] = distTo[queue[i]];
+                count++;
+            }
+            sizes[s + 1] = tail;
+        }
+
+        return Arrays.copyOf(packed, 2 * count);
+    }
+
+    // reads an index written by save()
+    // checks the header counts against the file length, that the offsets are
+    // monotone and that every list is sorted by vertex, holds only vertices in
+    // [0, V) at non-negative distances, and holds its own vertex at distance 0
+    public static AncestorIndex load(String path) {
+        if (path == null)
+            throw new java.lang.NullPointerException();
+
+        try {
+            FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+
+            try {
+                IntBuffer ints = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).asIntBuffer();
+
+                if (ints.remaining() < 3 || ints.get() != MAGIC)
+                    throw new java.lang.IllegalArgumentException("not an ancestor index: " + path);
+
+                int V = ints.get();
+                int size = ints.get();
+
+                if (V < 0 || size < 0 || channel.size() != 4L * (3 + (V + 1L) + 2L * size))
+                    throw new java.lang.IllegalArgumentException("corrupt ancestor index: " + path);
+
+                int[] offsets = new int[V + 1];
+                int[] entries = new int[2 * size];
+                ints.get(offsets);
+                ints.get(entries);
+
+                if (!isValid(offsets, entries))
+                    throw new java.lang.IllegalArgumentException("corrupt ancestor index: " + path);
+
+                return new AncestorIndex(offsets, entries, 0);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("could not read " + path, e);
+        }
+    }
+
+    private static boolean isValid(int[] offsets, int[] entries) {
+        int V = offsets.length - 1;
+
+        if (offsets[0] != 0 || offsets[V] != entries.length / 2)
+            return false;
+
+        for (int v = 0; v < V; v++) {
+            if (offsets[v + 1] < offsets[v])
+                return false;
+
+            boolean self = false;
+
+            for (int i = 2 * offsets[v]; i < 2 * offsets[v + 1]; i += 2) {
+                if (entries[i] < 0 || entries[i] >= V || entries[i + 1] < 0
+                        || (i > 2 * offsets[v] && entries[i] <= entries[i - 2]))
+                    return false;
+
+                self |= entries[i] == v && entries[i + 1] == 0;
+            }
+
+            if (!self)
+                return false;
+        }
+
+        return true;
+    }
+
+    public void save(String path) {
+        if (path == null)
+            throw new java.lang.NullPointerException();
+
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16));
+
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(V());
+                out.writeInt(entries.length / 2);
+
+                for (int x : offsets)
+                    out.writeInt(x);
+                for (int x : entries)
+                    out.writeInt(x);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("could not write " + path, e);
+        }
+    }
+
+    public int V() {
+        return offsets.length - 1;
+    }
+
+    // number of (vertex, ancestor) pairs, each vertex counting as its own ancestor
+    public long size() {
+        return entries.length / 2;
+    }
+
+    // heap used by the index
+    public long memoryBytes() {
+        return 4L * (offsets.length + entries.length);
+    }
+
+    // mean time of a single-pair query, sampled when the index was built or loaded
+    public double queryNanos() {
+        return queryNanos;
+    }
+
+    public String toString() {
+        return String.format("%d vertices, %d ancestor entries (%.1f per vertex, %.1f MB), built in %d ms, %.0f ns per query",
+                V(), size(), (double) size() / Math.max(1, V()), memoryBytes() / (1024.0 * 1024.0), buildMillis, queryNanos);
+    }
+
+    // does the file start like one written by save()?
+    static boolean isIndex(String path) {
+        try (java.io.DataInputStream in = new java.io.DataInputStream(new java.io.FileInputStream(path))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // marks the flagged vertices as no longer answerable from the index
+    void invalidate(boolean[] flagged) {
+        if (stale == null)
+            stale = new boolean[V()];
+
+        for (int v = 0; v < V(); v++)
+            stale[v] |= flagged[v];
+    }
+
+    // are the ancestors of v in the index, and still up to date?
+    boolean isCurrent(int v) {
+        return v < V() && (stale == null || !stale[v]);
+    }
+
+    boolean isCurrent(int[] vertices) {
+        for (int v : vertices)
+            if (!isCurrent(v))
+                return false;
+
+        return true;
+    }
+
+    // ancestors of a vertex set with their distances, sorted: a copy of the
+    // list for one vertex, otherwise the union of the lists at the smallest
+    // distance to each ancestor
+    SAP.Ancestors ancestors(int[] sources) {
+        int count = 0;
+        for (int v : sources)
+            count += offsets[v + 1] - offsets[v];
+
+        // (ancestor, distance) pairs sort by ancestor, then distance
+        long[] pairs = new long[count];
+        count = 0;
+        for (int v : sources)
+            for (int i = 2 * offsets[v]; i < 2 * offsets[v + 1]; i += 2)
+                pairs[count++] = (long) entries[i] << 32 | entries[i + 1];
+
+        if (sources.length > 1)
+            Arrays.sort(pairs);
+
+        int[] vertices = new int[count];
+        int[] distances = new int[count];
+        int size = 0;
+
+        for (long pair : pairs)
+            if (size == 0 || vertices[size - 1] != (int) (pair >>> 32)) {
+                vertices[size] = (int) (pair >>> 32);
+                distances[size++] = (int) pair;
+            }
+
+        return new SAP.Ancestors(Arrays.copyOf(vertices, size), Arrays.copyOf(distances, size));
+    }
+
+    // shortest ancestral path between any vertex in v and any vertex in w,
+    // as the best of the pairwise merges
+    SAP.Result query(int[] v, int[] w) {
+        int length = Integer.MAX_VALUE;
+        int ancestor = -1;
+
+        for (int x : v)
+            for (int y : w) {
+                int i = 2 * offsets[x], iend = 2 * offsets[x + 1];
+                int j = 2 * offsets[y], jend = 2 * offsets[y + 1];
+
+                while (i < iend && j < jend) {
+                    if (entries[i] < entries[j])
+                        i += 2;
+                    else if (entries[i] > entries[j])
+                        j += 2;
+                    else {
+                        if (entries[i + 1] + entries[j + 1] < length) {
+                            length = entries[i + 1] + entries[j + 1];
+                            ancestor = entries[i];
+                        }
+                        i += 2;
+                        j += 2;
+                    }
+                }
+            }
+
+        if (ancestor == -1)
+            return new SAP.Result(-1, -1);
+
+        return new SAP.Result(length, ancestor);
+    }
+}
@@ -0,0 +1,186 @@
+import java.util.Arrays;
+
+
+// an immutable digraph in compressed sparse row form: the targets of the
+// edges leaving v are targets[offsets[v]..offsets[v + 1])
+public class CompactDigraph {
+    private final int[] offsets;
+    private final int[] targets;
+
+    // collects edges in two growing int arrays until the graph is built
+    public static class Builder {
+        private final int size;
+        private int[] tails = new int[16];
+        private int[] heads = new int[16];
+        private int count;
+
+        public Builder(int V) {
+            if (V < 0)
+                throw new java.lang.IllegalArgumentException();
+
+            size = V;
+        }
+
+        public void addEdge(int v, int w) {
+            checkVertex(v);
+            checkVertex(w);
+
+            if (count == tails.length) {
+                tails = Arrays.copyOf(tails, 2 * count);
+                heads = Arrays.copyOf(heads, 2 * count);
+            }
+
+            tails[count] = v;
+            heads[count] = w;
+            count++;
+        }
+
+        public CompactDigraph build() {
+            return new CompactDigraph(size, tails, heads, count);
+        }
+
+        private void checkVertex(int vertex) {
+            if (vertex < 0 || vertex > size - 1)
+                throw new java.lang.IndexOutOfBoundsException();
+        }
+    }
+
+    // copy of an algs4 digraph
+    public CompactDigraph(Digraph G) {
+        if (G == null)
+            throw new java.lang.NullPointerException();
+
+        offsets = new int[G.V() + 1];
+        targets = new int[G.E()];
+
+        int count = 0;
+
+        for (int v = 0; v < G.V(); v++) {
+            offsets[v] = count;
+
+            for (int w : G.adj(v))
+                targets[count++] = w;
+        }
+        offsets[G.V()] = count;
+    }
+
+    // wraps arrays already in CSR form, as read back from a snapshot
+    CompactDigraph(int[] offsets, int[] targets) {
+        this.offsets = offsets;
+        this.targets = targets;
+    }
+
+    // the digraph on V vertices with the E edges (tails[i], heads[i])
+    static CompactDigraph fromEdges(int V, int[] tails, int[] heads, int E) {
+        for (int i = 0; i < E; i++)
+            if (tails[i] < 0 || tails[i] >= V || heads[i] < 0 || heads[i] >= V)
+                throw new java.lang.IndexOutOfBoundsException();
+
+        return new CompactDigraph(V, tails, heads, E);
+    }
+
+    // groups the E edges (tails[i], heads[i]) by tail with a counting sort
+    private CompactDigraph(int V, int[] tails, int[] heads, int E) {
+        offsets = new int[V + 1];
+        targets = new int[E];
+
+        for (int i = 0; i < E; i++)
+            offsets[tails[i] + 1]++;
+
+        for (int v = 0; v < V; v++)
+            offsets[v + 1] += offsets[v];
+
+        int[] next = Arrays.copyOf(offsets, V);
+
+        for (int i = 0; i < E; i++)
+            targets[next[tails[i]]++] = heads[i];
+    }
+
+    public int V() {
+        return offsets.length - 1;
+    }
+
+    public int E() {
+        return targets.length;
+    }
+
+    public int outdegree(int v) {
+        return offsets[v + 1] - offsets[v];
+    }
+
+    // index of the first edge leaving v
+    public int begin(int v) {
+        return offsets[v];
+    }
+
+    // index one past the last edge leaving v
+    public int end(int v) {
+        return offsets[v + 1];
+    }
+
+    // head of the i-th edge
+    public int target(int i) {
+        return targets[i];
+    }
+
+    // the same digraph with every edge reversed
+    public CompactDigraph reverse() {
+        int V = V();
+        int[] tails = new int[E()];
+
+        for (int v = 0; v < V; v++)
+            for (int i = offsets[v]; i < offsets[v + 1]; i++)
+                tails[i] = v;
+
+        return new CompactDigraph(V, targets, tails, E());
+    }
+
+    int[] offsets() {
+        return offsets;
+    }
+
+    int[] targets() {
+        return targets;
+    }
+
+    // does the digraph contain a directed cycle? (iterative DFS, safe on deep graphs)
+    public boolean hasCycle() {
+        int V = V();
+        byte[] state = new byte[V];  // 0 = unvisited, 1 = on stack, 2 = done
+        int[] stack = new int[V];
+        int[] edge = new int[V];
+
+        for (int s = 0; s < V; s++) {
+            if (state[s] != 0)
+                continue;
+
+            int top = 0;
+            stack[0] = s;
+            edge[0] = offsets[s];
+            state[s] = 1;
+
+            while (top >= 0) {
+                int v = stack[top];
+
+                if (edge[top] == offsets[v + 1]) {
+                    state[v] = 2;
+                    top--;
+                    continue;
+                }
+
+                int w = targets[edge[top]++];
+
+                if (state[w] == 1)
+                    return true;
+
+                if (state[w] == 0) {
+                    state[w] = 1;
+                    stack[++top] = w;
+                    edge[top] = offsets[w];
+                }
+            }
+        }
+
+        return false;
+    }
+}
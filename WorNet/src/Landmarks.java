@@ -0,0 +1,163 @@
+// BFS distances from a few landmark vertices, used to bound the length of
+// a shortest ancestral path without searching. For each landmark L we keep
+//   up[x]:  length of a shortest directed path from x to L (-1 if none), and
+//   any[x]: length of a shortest path from L to x ignoring edge directions.
+// A landmark reached from both v and w is a common ancestor, so
+// up[v] + up[w] is an upper bound. An ancestral path is also an undirected
+// path, so by the triangle inequality |any[v] - any[w]| is a lower bound,
+// and v and w have no ancestral path at all if only one of them is
+// connected to L.
+final class Landmarks {
+    private final int[] vertices;
+    private final int[][] up;
+    private final int[][] any;
+
+    // picks the roots first, then the vertices with the most incoming edges
+    Landmarks(CompactDigraph G, CompactDigraph reverse, int count) {
+        int V = G.V();
+        count = Math.min(count, V);
+
+        vertices = new int[count];
+        boolean[] chosen = new boolean[V];
+        int n = 0;
+
+        for (int v = 0; v < V && n < count; v++)
+            if (G.outdegree(v) == 0) {
+                vertices[n++] = v;
+                chosen[v] = true;
+            }
+
+        while (n < count) {
+            int best = -1;
+            for (int v = 0; v < V; v++)
+                if (!chosen[v] && (best == -1 || reverse.outdegree(v) > reverse.outdegree(best)))
+                    best = v;
+
+            vertices[n++] = best;
+            chosen[best] = true;
+        }
+
+        up = new int[count][];
+        any = new int[count][];
+
+        for (int i = 0; i < count; i++) {
+            up[i] = bfs(vertices[i], reverse, null);
+            any[i] = bfs(vertices[i], reverse, G);
+        }
+    }
+
+    // distances from s along the edges of a, and of b too if not null; -1 if unreachable
+    private static int[] bfs(int s, CompactDigraph a, CompactDigraph b) {
+        int[] distTo = new int[a.V()];
+        int[] queue = new int[a.V()];
+        int head = 0, tail = 0;
+
+        java.util.Arrays.fill(distTo, -1);
+        distTo[s] = 0;
+        queue[tail++] = s;
+
+        while (head < tail) {
+            int v = queue[head++];
+
+            for (int i = a.begin(v); i < a.end(v); i++)
+                if (distTo[a.target(i)] == -1) {
+                    distTo[a.target(i)] = distTo[v] + 1;
+                    queue[tail++] = a.target(i);
+                }
+
+            if (b != null)
+                for (int i = b.begin(v); i < b.end(v); i++)
+                    if (distTo[b.target(i)] == -1) {
+                        distTo[b.target(i)] = distTo[v] + 1;
+                        queue[tail++] = b.target(i);
+                    }
+        }
+
+        return distTo;
+    }
+
+    int V() {
+        return up.length == 0 ? 0 : up[0].length;
+    }
+
+    // lower bound on the length of a shortest ancestral path; Integer.MAX_VALUE if there is none
+    int lower(int v, int w) {
+        if (v >= V() || w >= V())
+            return 0;
+
+        int lower = 0;
+
+        for (int i = 0; i < vertices.length; i++) {
+            int dv = any[i][v], dw = any[i][w];
+
+            if ((dv == -1) != (dw == -1))
+                return Integer.MAX_VALUE;
+
+            if (dv != -1)
+                lower = Math.max(lower, Math.abs(dv - dw));
+        }
+
+        return lower;
+    }
+
+    // upper bound on the length of a shortest ancestral path; Integer.MAX_VALUE if unknown
+    int upper(int v, int w) {
+        int i = best(v, w);
+        return i == -1 ? Integer.MAX_VALUE : up[i][v] + up[i][w];
+    }
+
+    // the landmark on the path that gives the upper bound; -1 if none
+    int ancestor(int v, int w) {
+        int i = best(v, w);
+        return i == -1 ? -1 : vertices[i];
+    }
+
+    int lower(int[] v, int[] w) {
+        int lower = Integer.MAX_VALUE;
+
+        for (int x : v)
+            for (int y : w)
+                lower = Math.min(lower, lower(x, y));
+
+        return lower;
+    }
+
+    int upper(int[] v, int[] w) {
+        int upper = Integer.MAX_VALUE;
+
+        for (int x : v)
+            for (int y : w)
+                upper = Math.min(upper, upper(x, y));
+
+        return upper;
+    }
+
+    int ancestor(int[] v, int[] w) {
+        int upper = Integer.MAX_VALUE;
+        int ancestor = -1;
+
+        for (int x : v)
+            for (int y : w)
+                if (upper(x, y) < upper) {
+                    upper = upper(x, y);
+                    ancestor = ancestor(x, y);
+                }
+
+        return ancestor;
+    }
+
+    // index of the common-ancestor landmark closest to v and w; -1 if none
+    private int best(int v, int w) {
+        if (v >= V() || w >= V())
+            return -1;
+
+        int best = -1;
+
+        for (int i = 0; i < vertices.length; i++)
+            if (up[i][v] != -1 && up[i][w] != -1
+                    && (best == -1 || up[i][v] + up[i][w] < up[best][v] + up[best][w]))
+                best = i;
+
+        return best;
+    }
+}
@@ -0,0 +1,176 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+
+
+// maps each noun to the sorted ids of the synsets containing it. Nouns are
+// kept in a sorted String[] and looked up by binary search; the synset ids of
+// the i-th noun are synsets[offsets[i]..offsets[i + 1]) in one shared int[].
+// An index opened from a snapshot searches the snapshot's string pool
+// instead, decoding only the nouns it compares, until the first add().
+final class NounIndex {
+    private String[] nouns;                 // null while pool holds the nouns
+    private WordNetSnapshot.Strings pool;
+    private int[] offsets;
+    private int[] synsets;
+
+    NounIndex(String[] nouns, int[] offsets, int[] synsets) {
+        this.nouns = nouns;
+        this.offsets = offsets;
+        this.synsets = synsets;
+    }
+
+    NounIndex(WordNetSnapshot.Strings nouns, int[] offsets, int[] synsets) {
+        this.pool = nouns;
+        this.offsets = offsets;
+        this.synsets = synsets;
+    }
+
+    // index of the count (words[i], ids[i]) pairs, where ids are non-decreasing
+    static NounIndex build(String[] words, int[] ids, int count) {
+        String[] sorted = Arrays.copyOf(words, count);
+        Arrays.sort(sorted);
+
+        int size = 0;
+        for (int i = 0; i < count; i++)
+            if (size == 0 || !sorted[i].equals(sorted[size - 1]))
+                sorted[size++] = sorted[i];
+
+        String[] nouns = Arrays.copyOf(sorted, size);
+        int[] noun = new int[count];
+        int[] offsets = new int[size + 1];
+
+        for (int i = 0; i < count; i++) {
+            noun[i] = Arrays.binarySearch(nouns, words[i]);
+            offsets[noun[i] + 1]++;
+        }
+
+        for (int i = 0; i < size; i++)
+            offsets[i + 1] += offsets[i];
+
+        int[] next = Arrays.copyOf(offsets, size);
+        int[] synsets = new int[count];
+
+        // a word listed twice in one synset is only recorded once
+        for (int i = 0; i < count; i++) {
+            int n = noun[i];
+            if (next[n] == offsets[n] || synsets[next[n] - 1] != ids[i])
+                synsets[next[n]++] = ids[i];
+        }
+
+        offsets = compact(offsets, next, synsets);
+
+        return new NounIndex(nouns, offsets, Arrays.copyOf(synsets, offsets[size]));
+    }
+
+    // closes the gaps left by duplicates, in place; returns the new offsets
+    private static int[] compact(int[] offsets, int[] ends, int[] synsets) {
+        int[] compacted = new int[offsets.length];
+
+        for (int i = 0; i < ends.length; i++) {
+            int length = ends[i] - offsets[i];
+            System.arraycopy(synsets, offsets[i], synsets, compacted[i], length);
+            compacted[i + 1] = compacted[i] + length;
+        }
+
+        return compacted;
+    }
+
+    // records that the noun belongs to a new synset, whose id is larger than
+    // any already indexed; costs a shift of the arrays past the noun
+    void add(String noun, int synset) {
+        if (nouns == null) {
+            nouns = pool.toArray();
+            pool = null;
+        }
+
+        int i = indexOf(noun);
+
+        if (i < 0) {
+            i = -i - 1;
+            nouns = insert(nouns, i, noun);
+            offsets = insert(offsets, i, offsets[i]);
+        }
+
+        // a word listed twice in one synset is only recorded once
+        if (offsets[i + 1] > offsets[i] && synsets[offsets[i + 1] - 1] == synset)
+            return;
+
+        synsets = insert(synsets, offsets[i + 1], synset);
+
+        for (int j = i + 1; j < offsets.length; j++)
+            offsets[j]++;
+    }
+
+    private static String[] insert(String[] array, int i, String x) {
+        String[] copy = new String[array.length + 1];
+        System.arraycopy(array, 0, copy, 0, i);
+        copy[i] = x;
+        System.arraycopy(array, i, copy, i + 1, array.length - i);
+        return copy;
+    }
+
+    private static int[] insert(int[] array, int i, int x) {
+        int[] copy = new int[array.length + 1];
+        System.arraycopy(array, 0, copy, 0, i);
+        copy[i] = x;
+        System.arraycopy(array, i, copy, i + 1, array.length - i);
+        return copy;
+    }
+
+    // position of the noun in the index; negative if it is not a noun
+    int indexOf(String noun) {
+        if (nouns != null)
+            return Arrays.binarySearch(nouns, noun);
+
+        int lo = 0, hi = pool.size() - 1;
+
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = pool.get(mid).compareTo(noun);
+
+            if (cmp < 0)
+                lo = mid + 1;
+            else if (cmp > 0)
+                hi = mid - 1;
+            else
+                return mid;
+        }
+
+        return -(lo + 1);
+    }
+
+    // sorted ids of the synsets containing the i-th noun
+    int[] synsets(int i) {
+        return Arrays.copyOfRange(synsets, offsets[i], offsets[i + 1]);
+    }
+
+    Iterable<String> nouns() {
+        if (nouns != null)
+            return Collections.unmodifiableList(Arrays.asList(nouns));
+
+        WordNetSnapshot.Strings pool = this.pool;
+
+        return new AbstractList<String>() {
+            public String get(int i) {
+                return pool.get(i);
+            }
+
+            public int size() {
+                return pool.size();
+            }
+        };
+    }
+
+    String[] nounArray() {
+        return nouns != null ? nouns : pool.toArray();
+    }
+
+    int[] offsets() {
+        return offsets;
+    }
+
+    int[] synsetArray() {
+        return synsets;
+    }
+}
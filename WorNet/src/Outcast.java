@@ -14,16 +14,17 @@ public class Outcast {
         
         int max = Integer.MIN_VALUE;
         String outcast = null;
+        int[][] distances = wordnet.distances(nouns);
 
-        for (String nounA: nouns) {
+        for (int i = 0; i < nouns.length; i++) {
             int distance = 0;
             
-            for (String nounB: nouns)
-                distance += wordnet.distance(nounA, nounB);
+            for (int j = 0; j < nouns.length; j++)
+                distance += distances[i][j];
             
             if (distance > max) {
                 max = distance;
-                outcast = nounA;
+                outcast = nouns[i];
             }
         }
         
@@ -1,51 +1,234 @@
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
 
 
+// The single-query methods share one scratch ComputeSAP and a cache, and must
+// not be called concurrently. The batch methods lengths() and ancestors() are
+// safe to call from several threads: they run on the common ForkJoinPool,
+// each task borrowing a scratch ComputeSAP from a pool owned by this SAP, and
+// bypass the cache.
 public class SAP {
-    private final Digraph graph;
+    private static final int BATCH_CHUNK = 1024;
 
-    private class ComputeSAP {
-        private final BreadthFirstDirectedPaths vbfs, wbfs;
-        private int ancestor = -1;
-        private int length = -1;
-        private int size;
+    private CompactDigraph graph;
+    private CompactDigraph reverse;      // built on demand
+    private int size;                    // vertices, including those added after construction
+    private int[][] added;               // edges added after construction, by tail; null if none
+    private int[][] addedReverse;        // the same edges by head
+    private final ComputeSAP computeSAP;
+    // idle scratch for batch tasks. A ThreadLocal would leak: its values point
+    // back at this SAP, so pool threads would keep every SAP they ever served alive.
+    private final ConcurrentLinkedQueue<ComputeSAP> workers = new ConcurrentLinkedQueue<ComputeSAP>();
+    private final ResultCache cache;
+    private TreeLCA tree;
+    private AncestorIndex index;
+    private Landmarks landmarks;
+    private volatile SAPStats stats;
+    private long cacheHits;
+    private long cacheMisses;
+
+    // length and common ancestor of a shortest ancestral path; both -1 if no such path
+    public static final class Result {
+        private final int length;
+        private final int ancestor;
 
-        public ComputeSAP(Digraph graph, int v, int w) {
-            this(graph, Arrays.asList(v), Arrays.asList(w));
+        Result(int length, int ancestor) {
+            this.length = length;
+            this.ancestor = ancestor;
         }
 
-        public ComputeSAP(Digraph graph, Iterable<Integer> v, Iterable<Integer> w) {
-            size = graph.V();
+        public int length() {
+            return length;
+        }
 
-            checkVertices(v);
-            checkVertices(w);
+        public int ancestor() {
+            return ancestor;
+        }
+    }
 
-            vbfs = new BreadthFirstDirectedPaths(graph, v);
-            wbfs = new BreadthFirstDirectedPaths(graph, w);
+    // every vertex reachable from a vertex set, sorted, with its BFS distance
+    static final class Ancestors {
+        final int[] vertices;
+        final int[] distances;
 
-            int min = Integer.MAX_VALUE;
+        Ancestors(int[] vertices, int[] distances) {
+            this.vertices = vertices;
+            this.distances = distances;
+        }
+    }
 
-            for (int i = 0; i < size; i++)
-                if (hasPathTo(i) && distTo(i) < min) {
-                    ancestor = i;
-                    min = distTo(i);
-                }
+    // bounds on the length of a shortest ancestral path, from landmark distances
+    public static final class Bounds {
+        private final int lower;
+        private final int upper;
+        private final int ancestor;
+
+        private Bounds(int lower, int upper, int ancestor) {
+            this.lower = lower;
+            this.upper = upper;
+            this.ancestor = ancestor;
+        }
+
+        // at most the true length; Integer.MAX_VALUE if there is no ancestral path
+        public int lower() {
+            return lower;
+        }
+
+        // length of an actual ancestral path, so an approximate answer; Integer.MAX_VALUE if none is known
+        public int upper() {
+            return upper;
+        }
+
+        // the landmark common ancestor on that path; -1 if none is known
+        public int ancestor() {
+            return ancestor;
+        }
 
-            if (ancestor != -1)
-                length = min;
+        // how far upper() may be from the true length
+        public int error() {
+            return upper == Integer.MAX_VALUE ? Integer.MAX_VALUE : upper - lower;
         }
+    }
+
+    // receives the vertices found by nearest(); returns false to stop the search
+    interface Visitor {
+        boolean visit(int vertex, int distance);
+    }
 
-        private void checkVertex(int vertex) {
-            if (vertex < 0 || vertex > size - 1)
-                throw new java.lang.IndexOutOfBoundsException();
+    // an unordered pair of vertex sets, each sorted and free of duplicates,
+    // so that (v, w) and (w, v) share the same cache entry
+    private static final class Key {
+        private final int[] a;
+        private final int[] b;
+        private final int hash;
+
+        private Key(int[] v, int[] w) {
+            if (compare(v, w) <= 0) {
+                a = v;
+                b = w;
+            } else {
+                a = w;
+                b = v;
+            }
+
+            hash = 31 * Arrays.hashCode(a) + Arrays.hashCode(b);
         }
 
-        private void checkVertices(Iterable<Integer> vertices) {
-            if (vertices == null)
-                throw new java.lang.NullPointerException();
+        private static int compare(int[] v, int[] w) {
+            for (int i = 0; i < v.length && i < w.length; i++)
+                if (v[i] != w[i])
+                    return v[i] < w[i] ? -1 : 1;
 
-            for (int vertex: vertices)
-                checkVertex(vertex);
+            return v.length - w.length;
+        }
+
+        // does either set contain a flagged vertex?
+        private boolean contains(boolean[] flagged) {
+            for (int vertex : a)
+                if (flagged[vertex])
+                    return true;
+
+            for (int vertex : b)
+                if (flagged[vertex])
+                    return true;
+
+            return false;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key))
+                return false;
+
+            Key that = (Key) obj;
+            return hash == that.hash && Arrays.equals(a, that.a) && Arrays.equals(b, that.b);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    // least recently used results are evicted once capacity is exceeded
+    private static final class ResultCache extends LinkedHashMap<Key, Result> {
+        private static final long serialVersionUID = 1L;
+        private final int capacity;
+
+        private ResultCache(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Result> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    // expands the v-side and w-side searches one BFS level at a time, in
+    // alternation, and stops a side as soon as its next level cannot beat
+    // the shortest ancestral path found so far. The scratch arrays are
+    // allocated once and stamped with the epoch of the query that last
+    // touched them, so a new query never clears what the previous one visited.
+    private class ComputeSAP {
+        private final Frontier vfrontier = new Frontier();
+        private final Frontier wfrontier = new Frontier();
+        private int epoch;
+        private int ancestor;
+        private int length;
+        private int relaxed;      // edges looked at by the current search
+        private int widest;       // largest BFS level of the current search
+
+        public void compute(int v, int w) {
+            checkVertex(v);
+            checkVertex(w);
+
+            SAPStats stats = SAP.this.stats;
+            long start = stats != null ? System.nanoTime() : 0;
+
+            begin();
+
+            // start from the landmark bound and skip the search if it is tight
+            Landmarks landmarks = SAP.this.landmarks;
+            if (landmarks != null && bound(landmarks.lower(v, w), landmarks.upper(v, w), landmarks.ancestor(v, w)))
+                return;
+
+            vfrontier.visit(v, 0, wfrontier);
+            wfrontier.visit(w, 0, vfrontier);
+            search();
+
+            if (stats != null)
+                record(stats, start);
+        }
+
+        // v and w must already be validated
+        public void compute(int[] v, int[] w) {
+            SAPStats stats = SAP.this.stats;
+            long start = stats != null ? System.nanoTime() : 0;
+
+            begin();
+
+            Landmarks landmarks = SAP.this.landmarks;
+            if (landmarks != null && bound(landmarks.lower(v, w), landmarks.upper(v, w), landmarks.ancestor(v, w)))
+                return;
+
+            for (int vertex : v)
+                vfrontier.visit(vertex, 0, wfrontier);
+            for (int vertex : w)
+                wfrontier.visit(vertex, 0, vfrontier);
+            search();
+
+            if (stats != null)
+                record(stats, start);
+        }
+
+        private void record(SAPStats stats, long start) {
+            stats.record(System.nanoTime() - start, vfrontier.tail + wfrontier.tail, relaxed, widest);
         }
 
         public int getAncestor() {
@@ -56,54 +239,748 @@ public class SAP {
             return length;
         }
 
-        private int distTo(int i) {
-            return vbfs.distTo(i) + wbfs.distTo(i);
+        // is there an ancestral path between v and w no longer than distance?
+        public boolean isWithin(int v, int w, int distance) {
+            begin();
+
+            // paths must be shorter than length; past Integer.MAX_VALUE - 1
+            // that is no cap at all, and distance + 1 would overflow
+            length = distance < Integer.MAX_VALUE - 1 ? distance + 1 : Integer.MAX_VALUE;
+
+            vfrontier.visit(v, 0, wfrontier);
+            wfrontier.visit(w, 0, vfrontier);
+            search();
+
+            return ancestor != -1;
         }
 
-        private boolean hasPathTo(int i) {
-            return vbfs.hasPathTo(i) && wbfs.hasPathTo(i);
+        // runs the v-side search to exhaustion and collects what it touched
+        public Ancestors ancestors(int[] sources) {
+            begin();
+            for (int vertex : sources)
+                vfrontier.visit(vertex, 0, wfrontier);
+
+            while (vfrontier.head < vfrontier.tail)
+                vfrontier.expand(wfrontier);
+
+            int[] vertices = Arrays.copyOf(vfrontier.queue, vfrontier.tail);
+            Arrays.sort(vertices);
+
+            int[] distances = new int[vertices.length];
+            for (int i = 0; i < vertices.length; i++)
+                distances[i] = vfrontier.distTo[vertices[i]];
+
+            return new Ancestors(vertices, distances);
+        }
+
+        // see SAP.nearest(). The v-side frontier holds the upward search and
+        // the w-side one the downward search; each queue is consumed one
+        // level, a contiguous run of entries, at a time, so the cost is in
+        // what the search touches, not in the size of the graph.
+        public void nearest(int[] sources, int maxDistance, Visitor visitor) {
+            begin();
+            Frontier up = vfrontier, down = wfrontier;
+
+            for (int source : sources)
+                up.mark(source);
+
+            int upFrom = 0, downFrom = 0;
+
+            for (int distance = 0; distance <= maxDistance && (upFrom < up.tail || downFrom < down.tail); distance++) {
+                int upTo = up.tail;
+
+                // every ancestor at this distance is also where a downward path may start
+                for (int i = upFrom; i < upTo; i++)
+                    down.mark(up.queue[i]);
+
+                int downTo = down.tail;
+
+                for (int i = downFrom; i < downTo; i++)
+                    if (!visitor.visit(down.queue[i], distance))
+                        return;
+
+                for (int i = upFrom; i < upTo; i++) {
+                    int v = up.queue[i];
+
+                    if (v < graph.V())
+                        for (int j = graph.begin(v); j < graph.end(v); j++)
+                            up.mark(graph.target(j));
+
+                    if (added != null && added[v] != null)
+                        for (int w : added[v])
+                            up.mark(w);
+                }
+
+                for (int i = downFrom; i < downTo; i++) {
+                    int v = down.queue[i];
+
+                    if (v < reverse.V())
+                        for (int j = reverse.begin(v); j < reverse.end(v); j++)
+                            down.mark(reverse.target(j));
+
+                    if (addedReverse != null && addedReverse[v] != null)
+                        for (int w : addedReverse[v])
+                            down.mark(w);
+                }
+
+                upFrom = upTo;
+                downFrom = downTo;
+            }
+        }
+
+        // is there a directed path from one vertex to the other?
+        public boolean hasPath(int from, int to) {
+            begin();
+            vfrontier.visit(from, 0, wfrontier);
+
+            while (vfrontier.head < vfrontier.tail && !vfrontier.isMarked(to))
+                vfrontier.expand(wfrontier);
+
+            return vfrontier.isMarked(to);
+        }
+
+        private void begin() {
+            if (vfrontier.marked.length < size) {
+                vfrontier.grow();
+                wfrontier.grow();
+            }
+
+            if (++epoch == Integer.MAX_VALUE) {
+                vfrontier.clear();
+                wfrontier.clear();
+                epoch = 1;
+            }
+
+            vfrontier.head = vfrontier.tail = 0;
+            wfrontier.head = wfrontier.tail = 0;
+
+            ancestor = -1;
+            length = Integer.MAX_VALUE;
+            relaxed = 0;
+            widest = 0;
+        }
+
+        // seeds the result with an upper bound; true if the bounds already decide it
+        private boolean bound(int lower, int upper, int landmark) {
+            if (lower == Integer.MAX_VALUE) {
+                length = -1;
+                return true;
+            }
+
+            if (upper != Integer.MAX_VALUE) {
+                length = upper;
+                ancestor = landmark;
+            }
+
+            return lower == upper;
+        }
+
+        private void search() {
+            boolean vdone = false, wdone = false;
+
+            while (!vdone || !wdone) {
+                vdone = vdone || vfrontier.isDone();
+                if (!vdone)
+                    vfrontier.expand(wfrontier);
+
+                wdone = wdone || wfrontier.isDone();
+                if (!wdone)
+                    wfrontier.expand(vfrontier);
+            }
+
+            if (ancestor == -1)
+                length = -1;
+        }
+
+        // one side of the search: a BFS queue whose entries are consumed level
+        // by level; queue[0..tail) doubles as the list of vertices this query touched
+        private class Frontier {
+            private int[] marked = new int[size];
+            private int[] distTo = new int[size];
+            private int[] queue = new int[size];
+            private int head, tail;
+
+            private void clear() {
+                Arrays.fill(marked, 0);
+            }
+
+            // makes room for vertices added since the arrays were allocated
+            private void grow() {
+                int capacity = Math.max(size, 2 * marked.length);
+                marked = Arrays.copyOf(marked, capacity);
+                distTo = Arrays.copyOf(distTo, capacity);
+                queue = Arrays.copyOf(queue, capacity);
+            }
+
+            private boolean isMarked(int vertex) {
+                return marked[vertex] == epoch;
+            }
+
+            // queues the vertex unless this query already did
+            private void mark(int vertex) {
+                if (!isMarked(vertex)) {
+                    marked[vertex] = epoch;
+                    queue[tail++] = vertex;
+                }
+            }
+
+            // no vertex left, or the next level is already too far to shorten the path
+            private boolean isDone() {
+                return head == tail || distTo[queue[head]] + 1 >= length;
+            }
+
+            private void expand(Frontier other) {
+                int level = distTo[queue[head]];
+                widest = Math.max(widest, tail - head);
+
+                while (head < tail && distTo[queue[head]] == level) {
+                    int vertex = queue[head++];
+
+                    if (vertex < graph.V()) {
+                        int end = graph.end(vertex);
+                        relaxed += end - graph.begin(vertex);
+
+                        for (int i = graph.begin(vertex); i < end; i++)
+                            visit(graph.target(i), level + 1, other);
+                    }
+
+                    if (added != null && added[vertex] != null) {
+                        relaxed += added[vertex].length;
+
+                        for (int next : added[vertex])
+                            visit(next, level + 1, other);
+                    }
+                }
+            }
+
+            private void visit(int vertex, int dist, Frontier other) {
+                if (isMarked(vertex))
+                    return;
+
+                marked[vertex] = epoch;
+                distTo[vertex] = dist;
+                queue[tail++] = vertex;
+
+                if (other.isMarked(vertex) && dist + other.distTo[vertex] < length) {
+                    ancestor = vertex;
+                    length = dist + other.distTo[vertex];
+                }
+            }
         }
     }
 
     // constructor takes a digraph (not necessarily a DAG)
     public SAP(Digraph G) {
+        this(G, 0);
+    }
+
+    // keeps the results of up to cacheSize distinct queries; 0 disables the cache
+    public SAP(Digraph G, int cacheSize) {
+        this(new CompactDigraph(G), cacheSize);
+    }
+
+    // shares the given immutable digraph instead of copying it. If no vertex
+    // has more than one outgoing edge the digraph is a forest, and queries are
+    // answered in constant time from an Euler tour instead of by BFS.
+    public SAP(CompactDigraph G, int cacheSize) {
         if (G == null)
             throw new java.lang.NullPointerException();
 
-        graph = new Digraph(G);
+        if (cacheSize < 0)
+            throw new java.lang.IllegalArgumentException();
+
+        graph = G;
+        size = G.V();
+        computeSAP = new ComputeSAP();
+        tree = TreeLCA.of(G);
+        cache = cacheSize > 0 ? new ResultCache(cacheSize) : null;
     }
 
     // length of shortest ancestral path between v and w; -1 if no such path
     public int length(int v, int w) {
-        return new ComputeSAP(graph, v, w).getLength();
+        if (cache != null || index != null)
+            return query(v, w).length();
+
+        if (tree != null) {
+            checkVertex(v);
+            checkVertex(w);
+            return tree.length(v, w);
+        }
+
+        computeSAP.compute(v, w);
+        return computeSAP.getLength();
     }
 
     // a common ancestor of v and w that participates in a shortest ancestral path; -1 if no such path
     public int ancestor(int v, int w) {
-        return new ComputeSAP(graph, v, w).getAncestor();
+        if (cache != null || index != null)
+            return query(v, w).ancestor();
+
+        if (tree != null) {
+            checkVertex(v);
+            checkVertex(w);
+            return tree.ancestor(v, w);
+        }
+
+        computeSAP.compute(v, w);
+        return computeSAP.getAncestor();
     }
 
     // length of shortest ancestral path between any vertex in v and any vertex in w; -1 if no such path
     public int length(Iterable<Integer> v, Iterable<Integer> w) {
-        return new ComputeSAP(graph, v, w).getLength();
+        return query(v, w).length();
     }
 
     // a common ancestor that participates in shortest ancestral path; -1 if no such path
     public int ancestor(Iterable<Integer> v, Iterable<Integer> w) {
-        return new ComputeSAP(graph, v, w).getAncestor();
+        return query(v, w).ancestor();
     }
 
-    // do unit testing of this class
+    // length and common ancestor of a shortest ancestral path between v and w
+    public Result query(int v, int w) {
+        checkVertex(v);
+        checkVertex(w);
+
+        if (cache == null && index == null && tree == null) {
+            computeSAP.compute(v, w);
+            return new Result(computeSAP.getLength(), computeSAP.getAncestor());
+        }
+
+        return query(new int[] { v }, new int[] { w });
+    }
+
+    // length and common ancestor of a shortest ancestral path between any vertex in v and any vertex in w
+    public Result query(Iterable<Integer> v, Iterable<Integer> w) {
+        return query(toVertices(v), toVertices(w));
+    }
+
+    // lengths[i] is the length of a shortest ancestral path between v[i] and w[i]
+    public int[] lengths(int[] v, int[] w) {
+        int[] lengths = new int[checkPairs(v, w)];
+        batch(v, w, lengths, null);
+        return lengths;
+    }
+
+    // ancestors[i] is a common ancestor on a shortest ancestral path between v[i] and w[i]
+    public int[] ancestors(int[] v, int[] w) {
+        int[] ancestors = new int[checkPairs(v, w)];
+        batch(v, w, null, ancestors);
+        return ancestors;
+    }
+
+    // ancestors of every vertex set, read from the index when it is current
+    // and otherwise computed in parallel with pooled scratch; the sets must be
+    // validated, sorted and free of duplicates
+    Ancestors[] allAncestors(int[][] sets) {
+        AncestorIndex index = this.index;
+        Ancestors[] ancestors = new Ancestors[sets.length];
+
+        IntStream.range(0, sets.length).parallel().forEach(i -> {
+            if (index != null && index.isCurrent(sets[i])) {
+                ancestors[i] = index.ancestors(sets[i]);
+                return;
+            }
+
+            ComputeSAP scratch = borrow();
+            ancestors[i] = scratch.ancestors(sets[i]);
+            workers.offer(scratch);
+        });
+
+        return ancestors;
+    }
+
+    // an idle scratch ComputeSAP, or a new one if all are in use; give it back
+    // to workers when done
+    private ComputeSAP borrow() {
+        ComputeSAP scratch = workers.poll();
+        return scratch != null ? scratch : new ComputeSAP();
+    }
+
+    // answers the pairs in chunks of BATCH_CHUNK, one ForkJoin task per chunk
+    private void batch(int[] v, int[] w, int[] lengths, int[] ancestors) {
+        AncestorIndex index = this.index;
+        int chunks = (v.length + BATCH_CHUNK - 1) / BATCH_CHUNK;
+
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            ComputeSAP scratch = borrow();
+            int[] x = new int[1], y = new int[1];
+
+            for (int i = c * BATCH_CHUNK, end = Math.min(v.length, i + BATCH_CHUNK); i < end; i++) {
+                int length, ancestor;
+
+                if (tree != null) {
+                    ancestor = tree.ancestor(v[i], w[i]);
+                    length = tree.length(v[i], w[i]);
+                } else if (index != null && index.isCurrent(v[i]) && index.isCurrent(w[i])) {
+                    x[0] = v[i];
+                    y[0] = w[i];
+                    Result result = index.query(x, y);
+                    length = result.length();
+                    ancestor = result.ancestor();
+                } else {
+                    scratch.compute(v[i], w[i]);
+                    length = scratch.getLength();
+                    ancestor = scratch.getAncestor();
+                }
+
+                if (lengths != null)
+                    lengths[i] = length;
+                if (ancestors != null)
+                    ancestors[i] = ancestor;
+            }
+
+            workers.offer(scratch);
+        });
+    }
+
+    // validates two parallel arrays of vertices and returns their length
+    private int checkPairs(int[] v, int[] w) {
+        if (v == null || w == null)
+            throw new java.lang.NullPointerException();
+
+        if (v.length != w.length)
+            throw new java.lang.IllegalArgumentException();
+
+        for (int i = 0; i < v.length; i++) {
+            checkVertex(v[i]);
+            checkVertex(w[i]);
+        }
+
+        return v.length;
+    }
+
+    // shortest ancestral path between two vertex sets, by merging their ancestors
+    static Result join(Ancestors v, Ancestors w) {
+        int length = Integer.MAX_VALUE;
+        int ancestor = -1;
+
+        for (int i = 0, j = 0; i < v.vertices.length && j < w.vertices.length; ) {
+            if (v.vertices[i] < w.vertices[j])
+                i++;
+            else if (v.vertices[i] > w.vertices[j])
+                j++;
+            else {
+                if (v.distances[i] + w.distances[j] < length) {
+                    length = v.distances[i] + w.distances[j];
+                    ancestor = v.vertices[i];
+                }
+                i++;
+                j++;
+            }
+        }
+
+        if (ancestor == -1)
+            return new Result(-1, -1);
+
+        return new Result(length, ancestor);
+    }
+
+    // precomputes the ancestors of every vertex and answers later queries from them
+    public AncestorIndex buildIndex() {
+        index = AncestorIndex.build(digraph());
+        return index;
+    }
+
+    // answers later queries from a previously built index of this digraph; null goes back to BFS
+    public void useIndex(AncestorIndex index) {
+        if (index != null && index.V() != size)
+            throw new java.lang.IllegalArgumentException();
+
+        this.index = index;
+    }
+
+    // precomputes distances from count landmarks (the roots, then the vertices
+    // with the most incoming edges) and uses them to bound and prune every
+    // later search; costs 8 * count bytes per vertex. 0 turns landmarks off.
+    public void useLandmarks(int count) {
+        if (count < 0)
+            throw new java.lang.IllegalArgumentException();
+
+        if (count == 0) {
+            landmarks = null;
+            return;
+        }
+
+        CompactDigraph G = digraph();
+        if (reverse == null)
+            reverse = G.reverse();
+
+        landmarks = new Landmarks(G, reverse, count);
+    }
+
+    // landmark bounds on the length of a shortest ancestral path between v and
+    // w; upper() is an approximate length with error() as its error bound
+    public Bounds bounds(int v, int w) {
+        checkVertex(v);
+        checkVertex(w);
+
+        if (landmarks == null)
+            return new Bounds(0, Integer.MAX_VALUE, -1);
+
+        return new Bounds(landmarks.lower(v, w), landmarks.upper(v, w), landmarks.ancestor(v, w));
+    }
+
+    // is there an ancestral path between v and w of length at most distance?
+    // Answered from the landmark bounds when they decide it, otherwise by a
+    // search that gives up beyond distance.
+    public boolean isWithin(int v, int w, int distance) {
+        checkVertex(v);
+        checkVertex(w);
+
+        if (distance < 0)
+            return false;
+
+        if (landmarks != null) {
+            if (landmarks.lower(v, w) > distance)
+                return false;
+
+            if (landmarks.upper(v, w) <= distance)
+                return true;
+        }
+
+        if (tree != null)
+            return tree.length(v, w) != -1 && tree.length(v, w) <= distance;
+
+        return computeSAP.isWithin(v, w, distance);
+    }
+
+    // records every later search into the given counters, which may be shared
+    // between SAPs; null turns instrumentation off. Queries answered by the
+    // cache, the tree LCA, the ancestor index or the landmark bounds alone do
+    // not search and are not recorded.
+    public void setStats(SAPStats stats) {
+        this.stats = stats;
+    }
+
+    // number of vertices
+    public int V() {
+        return size;
+    }
+
+    // adds a vertex with no edges and returns its id
+    public int addVertex() {
+        if (added == null || size == added.length) {
+            int capacity = Math.max(16, 2 * size);
+            added = added == null ? new int[capacity][] : Arrays.copyOf(added, capacity);
+            addedReverse = addedReverse == null ? new int[capacity][] : Arrays.copyOf(addedReverse, capacity);
+        }
+
+        tree = null;
+        return size++;
+    }
+
+    // adds the edge v->w. Only what can see the new edge is invalidated: the
+    // ancestor lists and cached results of v and of every vertex that reaches v.
+    // The tree fast path is dropped for good.
+    public void addEdge(int v, int w) {
+        checkVertex(v);
+        checkVertex(w);
+
+        if (added == null) {
+            added = new int[Math.max(16, size)][];
+            addedReverse = new int[Math.max(16, size)][];
+        }
+
+        boolean[] affected = reaching(v);
+
+        added[v] = append(added[v], w);
+        addedReverse[w] = append(addedReverse[w], v);
+        tree = null;
+
+        // a new edge can shorten undirected distances, so the lower bounds
+        // would no longer hold
+        landmarks = null;
+
+        if (index != null)
+            index.invalidate(affected);
+
+        if (cache != null)
+            cache.keySet().removeIf(key -> key.contains(affected));
+    }
+
+    // the digraph in compressed form, including the edges added since construction
+    public CompactDigraph digraph() {
+        if (added == null)
+            return graph;
+
+        CompactDigraph.Builder builder = new CompactDigraph.Builder(size);
+
+        for (int v = 0; v < size; v++) {
+            if (v < graph.V())
+                for (int i = graph.begin(v); i < graph.end(v); i++)
+                    builder.addEdge(v, graph.target(i));
+
+            if (added[v] != null)
+                for (int w : added[v])
+                    builder.addEdge(v, w);
+        }
+
+        graph = builder.build();
+        reverse = null;
+        added = null;
+        addedReverse = null;
+
+        return graph;
+    }
+
+    // visits every vertex whose shortest ancestral path to the sources is at
+    // most maxDistance, in order of that distance. The search goes up the
+    // edges from the sources and, at no cost, turns down the reversed edges
+    // at any ancestor; both directions advance one level at a time, so each
+    // vertex is reported the first time the downward side reaches it.
+    void nearest(int[] sources, int maxDistance, Visitor visitor) {
+        if (reverse == null)
+            reverse = graph.reverse();
+
+        computeSAP.nearest(sources, maxDistance, visitor);
+    }
+
+    // is there a directed path from one vertex to the other?
+    boolean hasPath(int from, int to) {
+        checkVertex(from);
+        checkVertex(to);
+        return computeSAP.hasPath(from, to);
+    }
+
+    // flags v and every vertex with a path to v, by BFS over reversed edges
+    private boolean[] reaching(int v) {
+        boolean[] marked = new boolean[size];
+        marked[v] = true;
+
+        // a vertex added after construction that nothing points to yet
+        if (v >= graph.V() && addedReverse[v] == null)
+            return marked;
+
+        if (reverse == null)
+            reverse = graph.reverse();
+
+        int[] queue = new int[size];
+        int head = 0, tail = 0;
+        queue[tail++] = v;
+
+        while (head < tail) {
+            int x = queue[head++];
+
+            if (x < reverse.V())
+                for (int i = reverse.begin(x), end = reverse.end(x); i < end; i++)
+                    if (!marked[reverse.target(i)]) {
+                        marked[reverse.target(i)] = true;
+                        queue[tail++] = reverse.target(i);
+                    }
+
+            if (addedReverse[x] != null)
+                for (int y : addedReverse[x])
+                    if (!marked[y]) {
+                        marked[y] = true;
+                        queue[tail++] = y;
+                    }
+        }
+
+        return marked;
+    }
+
+    private static int[] append(int[] array, int x) {
+        if (array == null)
+            return new int[] { x };
+
+        int[] copy = Arrays.copyOf(array, array.length + 1);
+        copy[array.length] = x;
+        return copy;
+    }
+
+    // number of queries answered from the cache
+    public long cacheHits() {
+        return cacheHits;
+    }
+
+    // number of cacheable queries that had to be computed
+    public long cacheMisses() {
+        return cacheMisses;
+    }
+
+    // v and w must be validated, sorted and free of duplicates
+    Result query(int[] v, int[] w) {
+        Key key = null;
+
+        if (cache != null) {
+            key = new Key(v, w);
+            Result result = cache.get(key);
+
+            if (result != null) {
+                cacheHits++;
+                return result;
+            }
+            cacheMisses++;
+        }
+
+        Result result = compute(v, w);
+
+        if (cache != null)
+            cache.put(key, result);
+
+        return result;
+    }
+
+    private Result compute(int[] v, int[] w) {
+        if (tree != null)
+            return tree.query(v, w);
+
+        if (index != null && index.isCurrent(v) && index.isCurrent(w))
+            return index.query(v, w);
+
+        computeSAP.compute(v, w);
+        return new Result(computeSAP.getLength(), computeSAP.getAncestor());
+    }
+
+    private void checkVertex(int vertex) {
+        if (vertex < 0 || vertex > size - 1)
+            throw new java.lang.IndexOutOfBoundsException();
+    }
+
+    // validated, sorted and duplicate-free copy of the given vertices
+    private int[] toVertices(Iterable<Integer> vertices) {
+        if (vertices == null)
+            throw new java.lang.NullPointerException();
+
+        ArrayList<Integer> list = new ArrayList<Integer>();
+
+        for (int vertex: vertices) {
+            checkVertex(vertex);
+            list.add(vertex);
+        }
+
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++)
+            array[i] = list.get(i);
+
+        Arrays.sort(array);
+
+        int size = 0;
+        for (int i = 0; i < array.length; i++)
+            if (size == 0 || array[i] != array[size - 1])
+                array[size++] = array[i];
+
+        return Arrays.copyOf(array, size);
+    }
+
+    // do unit testing of this class; with a second argument, build and save an ancestor index
     public static void main(String[] args) {
         In in = new In(args[0]);
         Digraph G = new Digraph(in);
         SAP sap = new SAP(G);
 
+        if (args.length > 1) {
+            AncestorIndex index = sap.buildIndex();
+            StdOut.println(index);
+            index.save(args[1]);
+        }
+
         while (!StdIn.isEmpty()) {
             int v = StdIn.readInt();
             int w = StdIn.readInt();
-            int length   = sap.length(v, w);
-            int ancestor = sap.ancestor(v, w);
+            Result result = sap.query(v, w);
+            int length   = result.length();
+            int ancestor = result.ancestor();
             StdOut.printf("length = %d, ancestor = %d\n", length, ancestor);
         }
     }
@@ -0,0 +1,109 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+
+// counters for the BFS searches of one or more SAPs: vertices visited, edges
+// relaxed, the widest BFS level seen, and a latency histogram whose bucket k
+// counts searches that took [2^k, 2^(k+1)) nanoseconds. Safe to update from
+// several threads; read it with toString() or through JMX after register().
+public class SAPStats implements SAPStatsMBean {
+    private final LongAdder searches = new LongAdder();
+    private final LongAdder visited = new LongAdder();
+    private final LongAdder relaxed = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final LongAccumulator maxFrontier = new LongAccumulator(Math::max, 0);
+    private final AtomicLongArray histogram = new AtomicLongArray(64);
+
+    void record(long elapsed, int visitedVertices, int relaxedEdges, int frontier) {
+        searches.increment();
+        visited.add(visitedVertices);
+        relaxed.add(relaxedEdges);
+        nanos.add(elapsed);
+        maxFrontier.accumulate(frontier);
+        histogram.incrementAndGet(63 - Long.numberOfLeadingZeros(Math.max(1, elapsed)));
+    }
+
+    // publishes these counters on the platform MBean server
+    public void register(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("algs4:type=SAP,name=" + name));
+        } catch (JMException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    public long getSearches() {
+        return searches.sum();
+    }
+
+    public long getVisitedVertices() {
+        return visited.sum();
+    }
+
+    public long getRelaxedEdges() {
+        return relaxed.sum();
+    }
+
+    public long getMaxFrontier() {
+        return maxFrontier.get();
+    }
+
+    public double getMeanNanos() {
+        long count = searches.sum();
+        return count == 0 ? 0 : (double) nanos.sum() / count;
+    }
+
+    public long getMedianNanos() {
+        return percentile(0.5);
+    }
+
+    public long getP99Nanos() {
+        return percentile(0.99);
+    }
+
+    // upper end of the histogram bucket holding the p-th fraction of searches
+    public long percentile(double p) {
+        long total = 0;
+        for (int k = 0; k < histogram.length(); k++)
+            total += histogram.get(k);
+
+        long seen = 0;
+        for (int k = 0; k < histogram.length(); k++) {
+            seen += histogram.get(k);
+            if (seen > 0 && seen >= p * total)
+                return k == 63 ? Long.MAX_VALUE : (1L << (k + 1)) - 1;
+        }
+
+        return 0;
+    }
+
+    public void reset() {
+        searches.reset();
+        visited.reset();
+        relaxed.reset();
+        nanos.reset();
+        maxFrontier.reset();
+        for (int k = 0; k < histogram.length(); k++)
+            histogram.set(k, 0);
+    }
+
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        long count = Math.max(1, getSearches());
+
+        s.append(String.format("%d searches, %.1f vertices and %.1f edges per search, widest level %d%n",
+                getSearches(), (double) getVisitedVertices() / count, (double) getRelaxedEdges() / count, getMaxFrontier()));
+        s.append(String.format("latency: mean %.0f ns, median < %d ns, p99 < %d ns%n",
+                getMeanNanos(), getMedianNanos(), getP99Nanos()));
+
+        for (int k = 0; k < histogram.length(); k++)
+            if (histogram.get(k) > 0)
+                s.append(String.format("  [2^%d, 2^%d) ns: %d%n", k, k + 1, histogram.get(k)));
+
+        return s.toString();
+    }
+}
@@ -0,0 +1,18 @@
+// JMX view of an SAPStats
+public interface SAPStatsMBean {
+    long getSearches();
+
+    long getVisitedVertices();
+
+    long getRelaxedEdges();
+
+    long getMaxFrontier();
+
+    double getMeanNanos();
+
+    long getMedianNanos();
+
+    long getP99Nanos();
+
+    void reset();
+}
@@ -0,0 +1,158 @@
+import java.util.Arrays;
+
+
+// lowest common ancestors in a digraph where every vertex has at most one
+// outgoing edge (its parent), i.e. a forest with edges pointing to the roots.
+// An Euler tour of each tree is recorded along with the depth of every step;
+// the LCA of v and w is the shallowest vertex of the tour between their first
+// occurrences, found in O(1) with a sparse table of range minima.
+final class TreeLCA {
+    private final int[] depth;
+    private final int[] tree;    // root of the tree containing each vertex
+    private final int[] first;   // first position of each vertex in the tour
+    private final int[] tour;
+    private final int[][] sparse;
+
+    private TreeLCA(CompactDigraph G) {
+        int V = G.V();
+        depth = new int[V];
+        tree = new int[V];
+        first = new int[V];
+        tour = new int[Math.max(1, 2 * V - 1)];
+
+        // children lists, i.e. the reverse graph in CSR form
+        int[] offsets = new int[V + 1];
+        for (int v = 0; v < V; v++)
+            if (G.outdegree(v) == 1)
+                offsets[G.target(G.begin(v)) + 1]++;
+
+        for (int v = 0; v < V; v++)
+            offsets[v + 1] += offsets[v];
+
+        int[] children = new int[offsets[V]];
+        int[] next = Arrays.copyOf(offsets, V);
+        for (int v = 0; v < V; v++)
+            if (G.outdegree(v) == 1)
+                children[next[G.target(G.begin(v))]++] = v;
+
+        // iterative DFS from every root
+        int[] stack = new int[V];
+        int[] edge = new int[V];
+        int size = 0;
+
+        for (int root = 0; root < V; root++) {
+            if (G.outdegree(root) != 0)
+                continue;
+
+            int top = 0;
+            stack[0] = root;
+            edge[0] = offsets[root];
+            first[root] = size;
+            tour[size++] = root;
+            tree[root] = root;
+
+            while (top >= 0) {
+                int v = stack[top];
+
+                if (edge[top] == offsets[v + 1]) {
+                    top--;
+                    if (top >= 0)
+                        tour[size++] = stack[top];
+                    continue;
+                }
+
+                int child = children[edge[top]++];
+                depth[child] = depth[v] + 1;
+                tree[child] = root;
+                first[child] = size;
+                tour[size++] = child;
+                stack[++top] = child;
+                edge[top] = offsets[child];
+            }
+        }
+
+        sparse = buildSparseTable(size);
+    }
+
+    // a tree LCA structure if G is a forest whose edges point to the roots, null otherwise
+    static TreeLCA of(CompactDigraph G) {
+        for (int v = 0; v < G.V(); v++)
+            if (G.outdegree(v) > 1)
+                return null;
+
+        // at most one parent each: the only way not to be a forest is a cycle
+        if (G.hasCycle())
+            return null;
+
+        return new TreeLCA(G);
+    }
+
+    // sparse[k][i] is the tour position of the shallowest vertex in tour[i..i + 2^k)
+    private int[][] buildSparseTable(int size) {
+        int levels = 1;
+        while ((1 << levels) <= size)
+            levels++;
+
+        int[][] table = new int[levels][];
+        table[0] = new int[size];
+        for (int i = 0; i < size; i++)
+            table[0][i] = i;
+
+        for (int k = 1; k < levels; k++) {
+            int half = 1 << (k - 1);
+            table[k] = new int[size - (1 << k) + 1];
+
+            for (int i = 0; i < table[k].length; i++)
+                table[k][i] = shallower(table[k - 1][i], table[k - 1][i + half]);
+        }
+
+        return table;
+    }
+
+    private int shallower(int i, int j) {
+        return depth[tour[i]] <= depth[tour[j]] ? i : j;
+    }
+
+    // lowest common ancestor of v and w; -1 if they are in different trees
+    int ancestor(int v, int w) {
+        if (tree[v] != tree[w])
+            return -1;
+
+        int i = Math.min(first[v], first[w]);
+        int j = Math.max(first[v], first[w]);
+        int k = 31 - Integer.numberOfLeadingZeros(j - i + 1);
+
+        return tour[shallower(sparse[k][i], sparse[k][j - (1 << k) + 1])];
+    }
+
+    // shortest ancestral path between any vertex in v and any vertex in w, as the best pair
+    SAP.Result query(int[] v, int[] w) {
+        int length = Integer.MAX_VALUE;
+        int ancestor = -1;
+
+        for (int x : v)
+            for (int y : w) {
+                int lca = ancestor(x, y);
+
+                if (lca != -1 && depth[x] + depth[y] - 2 * depth[lca] < length) {
+                    length = depth[x] + depth[y] - 2 * depth[lca];
+                    ancestor = lca;
+                }
+            }
+
+        if (ancestor == -1)
+            return new SAP.Result(-1, -1);
+
+        return new SAP.Result(length, ancestor);
+    }
+
+    // length of the path between v and w through their lowest common ancestor; -1 if none
+    int length(int v, int w) {
+        int lca = ancestor(v, w);
+
+        if (lca == -1)
+            return -1;
+
+        return depth[v] + depth[w] - 2 * depth[lca];
+    }
+}
@@ -1,12 +1,18 @@
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.stream.IntStream;
 
 
 public class WordNet {
+    private static final int CACHE_SIZE = 4096;
+
     private final SAP sap;
-    private HashMap<String, ArrayList<Integer>> nounIndex = new HashMap<String, ArrayList<Integer>>();
-    private HashMap<Integer, String> synsetIndex = new HashMap<Integer, String>();
+    private NounIndex nounIndex;
+    private String[] synsetIndex;                // null entries are still in the snapshot
+    private WordNetSnapshot.Strings snapshotSynsets;
+    private int synsetCount;
 
     // constructor takes the name of the two input files
     public WordNet(String synsets, String hypernyms) {
@@ -14,98 +20,303 @@ public class WordNet {
         checkNull(hypernyms);
 
         int size = parseSynsets(synsets);
-        Digraph graph = parseHypernyms(hypernyms, size);
-        sap = new SAP(graph);
+        sap = new SAP(parseHypernyms(hypernyms, size), CACHE_SIZE);
+    }
+
+    // rebuilds a WordNet from an already validated snapshot; synsets and nouns
+    // are decoded from the mapping when first needed
+    private WordNet(WordNetSnapshot snapshot) {
+        snapshotSynsets = snapshot.synsets;
+        synsetCount = snapshotSynsets.size();
+        synsetIndex = new String[synsetCount];
+        nounIndex = new NounIndex(snapshot.nouns, snapshot.nounOffsets, snapshot.nounSynsets);
+        sap = new SAP(snapshot.graph, CACHE_SIZE);
+    }
+
+    // opens a snapshot written by save(). The file is memory-mapped and its
+    // structure checked, but the nouns and synsets are not parsed.
+    public static WordNet load(String snapshot) {
+        if (snapshot == null)
+            throw new java.lang.NullPointerException();
+
+        try {
+            return new WordNet(WordNetSnapshot.read(snapshot));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("could not read " + snapshot, e);
+        }
+    }
+
+    // writes the nouns, synsets and hypernym graph to a binary snapshot for load()
+    public void save(String snapshot) {
+        checkNull(snapshot);
+
+        String[] synsets = new String[synsetCount];
+        for (int id = 0; id < synsetCount; id++)
+            synsets[id] = synsetAt(id);
+
+        try {
+            WordNetSnapshot.write(snapshot, sap.digraph(), synsets, nounIndex.nounArray(), nounIndex.offsets(), nounIndex.synsetArray());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("could not write " + snapshot, e);
+        }
     }
 
     // returns all WordNet nouns
     public Iterable<String> nouns() {
-        return Collections.unmodifiableSet(nounIndex.keySet());
+        return nounIndex.nouns();
     }
 
     // is the word a WordNet noun?
     public boolean isNoun(String word) {
         checkNull(word);
-        return nounIndex.containsKey(word);
+        return nounIndex.indexOf(word) >= 0;
     }
 
     // distance between nounA and nounB (defined below)
     public int distance(String nounA, String nounB) {
-        checkNoun(nounA);
-        checkNoun(nounB);
-        return sap.length(nounIndex.get(nounA), nounIndex.get(nounB));
+        return sap.query(synsetsOf(nounA), synsetsOf(nounB)).length();
     }
 
     // a synset (second field of synsets.txt) that is the common ancestor of nounA and nounB
     // in a shortest ancestral path (defined below)
     public String sap(String nounA, String nounB) {
-        checkNoun(nounA);
-        checkNoun(nounB);
-        return synsetIndex.get(sap.ancestor(nounIndex.get(nounA), nounIndex.get(nounB)));
+        return synsetAt(sap.query(synsetsOf(nounA), synsetsOf(nounB)).ancestor());
     }
 
-    // do unit testing of this class
-    public static void main(String[] args) {
+    // up to k other nouns within maxDistance of the given noun, closest first.
+    // One bounded search from the noun's synsets replaces a distance() call per
+    // noun, and it stops as soon as k nouns are found.
+    public Iterable<String> nearest(String noun, int k, int maxDistance) {
+        int[] synsets = synsetsOf(noun);
+
+        if (k < 0 || maxDistance < 0)
+            throw new IllegalArgumentException();
+
+        ArrayList<String> nearest = new ArrayList<String>();
+        HashSet<String> seen = new HashSet<String>();
+        seen.add(noun);
+
+        if (k == 0)
+            return nearest;
+
+        sap.nearest(synsets, maxDistance, (synset, distance) -> {
+            for (String word : synsetAt(synset).split(" "))
+                if (seen.add(word)) {
+                    nearest.add(word);
+
+                    if (nearest.size() == k)
+                        return false;
+                }
+
+            return true;
+        });
 
+        return nearest;
     }
 
-    private void checkNoun(String noun) {
-        if (!isNoun(noun))
+    // precomputes the ancestors of every synset, so that distance() and sap()
+    // merge two short lists instead of searching; save the index to reuse it
+    public AncestorIndex buildIndex() {
+        return sap.buildIndex();
+    }
+
+    // answers distance() and sap() from an index built for this WordNet, for
+    // instance one loaded with AncestorIndex.load(); null goes back to searching
+    public void useIndex(AncestorIndex index) {
+        sap.useIndex(index);
+    }
+
+    // records the SAP searches behind distance() and sap(); null turns it off
+    public void setStats(SAPStats stats) {
+        sap.setStats(stats);
+    }
+
+    // adds a synset (nouns separated by spaces) under the given hypernym synsets
+    // and returns its id. Nothing can reach a new synset, so no cached result
+    // or index entry is invalidated.
+    public int addSynset(String synset, Iterable<Integer> hypernyms) {
+        checkNull(synset);
+        checkNull(hypernyms);
+
+        ArrayList<Integer> parents = new ArrayList<Integer>();
+        for (int hypernym : hypernyms) {
+            checkSynset(hypernym);
+            parents.add(hypernym);
+        }
+
+        // a synset without hypernyms would be a second root
+        if (parents.isEmpty() || synset.isEmpty())
             throw new IllegalArgumentException();
+
+        int id = sap.addVertex();
+        for (int hypernym : parents)
+            sap.addEdge(id, hypernym);
+
+        if (synsetCount == synsetIndex.length)
+            synsetIndex = Arrays.copyOf(synsetIndex, 2 * synsetCount + 1);
+        synsetIndex[synsetCount++] = synset;
+
+        for (String word : synset.split(" "))
+            nounIndex.add(word, id);
+
+        return id;
     }
 
-    private void checkNull(Object obj) {
-        if (obj == null)
-            throw new java.lang.NullPointerException();
+    // adds an edge from a synset to one of its hypernyms. The only cycle the
+    // edge can close runs back from hypernym to synset, so a single
+    // reachability search replaces a full cycle check.
+    public void addHypernym(int synset, int hypernym) {
+        checkSynset(synset);
+        checkSynset(hypernym);
+
+        if (synset == hypernym || sap.hasPath(hypernym, synset))
+            throw new IllegalArgumentException();
+
+        sap.addEdge(synset, hypernym);
     }
 
-    private int parseSynsets(String path) {
-        In in = new In(path);
-        int synsetId = 0;
+    // distances between every pair of the given nouns: matrix[i][j] == distance(nouns[i], nouns[j]).
+    // The ancestors of each noun are computed once, in parallel, and each
+    // unordered pair is then answered by merging two ancestor lists.
+    public int[][] distances(String[] nouns) {
+        checkNull(nouns);
 
-        while (!in.isEmpty()) {
-            String line = in.readLine();
-            String[] fields = line.split(",");
-            String[] words = fields[1].split(" ");
+        int n = nouns.length;
+        int[][] sets = new int[n][];
 
-            synsetIndex.put(synsetId, fields[1]);
+        for (int i = 0; i < n; i++)
+            sets[i] = synsetsOf(nouns[i]);
 
-            for (String word : words) {
-                ArrayList<Integer> synsets = nounIndex.get(word);
+        SAP.Ancestors[] ancestors = sap.allAncestors(sets);
+        int[][] matrix = new int[n][n];
 
-                if (synsets == null) {
-                    synsets = new ArrayList<Integer>();
-                    nounIndex.put(word, synsets);
-                }
-                synsets.add(synsetId);
-            }
-            synsetId++;
-        }
-        return synsetId;
+        IntStream.range(0, n).parallel().forEach(i -> {
+            for (int j = i + 1; j < n; j++)
+                matrix[i][j] = matrix[j][i] = SAP.join(ancestors[i], ancestors[j]).length();
+        });
+
+        return matrix;
+    }
+
+    // distance(noun, nouns[i]) for every i; the ancestors of noun are computed once
+    public int[] distances(String noun, String[] nouns) {
+        SAP.Result[] paths = paths(noun, nouns);
+        int[] distances = new int[paths.length];
+
+        for (int i = 0; i < paths.length; i++)
+            distances[i] = paths[i].length();
+
+        return distances;
+    }
+
+    // sap(noun, nouns[i]) for every i; the ancestors of noun are computed once
+    public String[] saps(String noun, String[] nouns) {
+        SAP.Result[] paths = paths(noun, nouns);
+        String[] saps = new String[paths.length];
+
+        for (int i = 0; i < paths.length; i++)
+            saps[i] = synsetAt(paths[i].ancestor());
+
+        return saps;
     }
 
-    private Digraph parseHypernyms(String path, int size) {
-        In in = new In(path);
-        Digraph digraph = new Digraph(size);
+    // shortest ancestral paths from noun to each of nouns, sharing the ancestors of noun
+    SAP.Result[] paths(String noun, String[] nouns) {
+        checkNull(nouns);
 
-        int count = 0;
+        int n = nouns.length;
+        int[][] sets = new int[n + 1][];
 
-        while (!in.isEmpty()) {
-            count++;
+        sets[n] = synsetsOf(noun);
+        for (int i = 0; i < n; i++)
+            sets[i] = synsetsOf(nouns[i]);
 
-            String line = in.readLine();
-            String[] fields = line.split(",");
-            int synsetId = Integer.parseInt(fields[0]);
+        SAP.Ancestors[] ancestors = sap.allAncestors(sets);
+        SAP.Result[] paths = new SAP.Result[n];
 
-            for (int i = 1; i < fields.length; i++)
-                digraph.addEdge(synsetId, Integer.parseInt(fields[i]));
+        for (int i = 0; i < n; i++)
+            paths[i] = SAP.join(ancestors[n], ancestors[i]);
+
+        return paths;
+    }
+
+    // do unit testing of this class; with a third argument, compile a snapshot,
+    // and with a fourth, build and save an ancestor index next to it
+    public static void main(String[] args) {
+        WordNet wordnet = new WordNet(args[0], args[1]);
+
+        if (args.length > 2)
+            wordnet.save(args[2]);
+
+        if (args.length > 3) {
+            AncestorIndex index = wordnet.buildIndex();
+            StdOut.println(index);
+            index.save(args[3]);
         }
+    }
+
+    // the synset with the given id
+    String synset(int id) {
+        checkSynset(id);
+        return synsetAt(id);
+    }
+
+    // decodes a synset of the snapshot on first use; concurrent callers may
+    // both decode it, which is harmless
+    private String synsetAt(int id) {
+        String synset = synsetIndex[id];
+
+        if (synset == null) {
+            synset = snapshotSynsets.get(id);
+            synsetIndex[id] = synset;
+        }
+
+        return synset;
+    }
+
+    // sorted synset ids of a noun
+    private int[] synsetsOf(String noun) {
+        checkNull(noun);
+        int i = nounIndex.indexOf(noun);
+
+        if (i < 0)
+            throw new IllegalArgumentException();
+
+        return nounIndex.synsets(i);
+    }
+
+    private void checkSynset(int id) {
+        if (id < 0 || id > synsetCount - 1)
+            throw new IndexOutOfBoundsException();
+    }
+
+    private void checkNull(Object obj) {
+        if (obj == null)
+            throw new java.lang.NullPointerException();
+    }
+
+    private int parseSynsets(String path) {
+        WordNetParser.Synsets synsets = WordNetParser.parseSynsets(path);
+
+        synsetIndex = synsets.synsets;
+        synsetCount = synsets.size;
+        nounIndex = NounIndex.build(synsets.nouns, synsets.ids, synsets.count);
+
+        return synsets.size;
+    }
+
+    // a rooted DAG: no cycle, and a single synset without hypernyms
+    private CompactDigraph parseHypernyms(String path, int size) {
+        CompactDigraph digraph = WordNetParser.parseHypernyms(path, size);
 
-        DirectedCycle dc = new DirectedCycle(digraph);
+        int roots = 0;
+        for (int v = 0; v < size; v++)
+            if (digraph.outdegree(v) == 0)
+                roots++;
 
-        if (dc.hasCycle() || size - count > 1)
+        if (digraph.hasCycle() || roots > 1)
             throw new IllegalArgumentException();
 
         return digraph;
     }
-}
\ No newline at end of file
+}
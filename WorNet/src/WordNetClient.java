@@ -0,0 +1,98 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/*************************************************************************
+ *  Execution:    java WordNetClient port < requests.txt
+ *
+ *  Talks to a WordNetServer on localhost. main() sends every request line
+ *  of standard input in one pipelined write, then prints the responses.
+ *
+ *************************************************************************/
+
+public class WordNetClient {
+    private final Socket socket;
+    private final BufferedReader in;
+    private final Writer out;
+
+    public WordNetClient(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+    }
+
+    public int distance(String nounA, String nounB) throws IOException {
+        return Integer.parseInt(check(request("distance " + nounA + " " + nounB)));
+    }
+
+    public String sap(String nounA, String nounB) throws IOException {
+        return check(request("sap " + nounA + " " + nounB));
+    }
+
+    public String outcast(String[] nouns) throws IOException {
+        return check(request("outcast " + String.join(" ", nouns)));
+    }
+
+    // sends all the requests before reading any response; one response per request, in order
+    public List<String> pipeline(List<String> requests) throws IOException {
+        for (String request : requests)
+            out.write(request + "\n");
+        out.flush();
+
+        List<String> responses = new ArrayList<String>();
+        for (int i = 0; i < requests.size(); i++)
+            responses.add(readResponse());
+
+        return responses;
+    }
+
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    private String request(String request) throws IOException {
+        out.write(request + "\n");
+        out.flush();
+        return readResponse();
+    }
+
+    private String readResponse() throws IOException {
+        String response = in.readLine();
+
+        if (response == null)
+            throw new IOException("connection closed by server");
+
+        return response;
+    }
+
+    private static String check(String response) {
+        if (response.startsWith("error"))
+            throw new IllegalArgumentException(response);
+
+        return response;
+    }
+
+    public static void main(String[] args) throws IOException {
+        WordNetClient client = new WordNetClient("localhost", Integer.parseInt(args[0]));
+        List<String> requests = new ArrayList<String>();
+
+        while (StdIn.hasNextLine()) {
+            String line = StdIn.readLine().trim();
+            if (!line.isEmpty())
+                requests.add(line);
+        }
+
+        for (String response : client.pipeline(requests))
+            StdOut.println(response);
+
+        client.close();
+    }
+}
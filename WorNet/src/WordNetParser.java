@@ -0,0 +1,247 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+
+// reads synsets and hypernyms files as bytes from a memory mapping, decoding
+// integers and comma/space separated fields in place instead of going
+// through readLine, String.split and Integer.parseInt. Files larger than
+// PARALLEL_THRESHOLD are cut into chunks that end on a newline and parsed in
+// parallel; chunk results are concatenated in file order.
+final class WordNetParser {
+    private static final int PARALLEL_THRESHOLD = 1 << 20;
+
+    // the synset strings and every (noun, synset id) pair, in file order
+    static final class Synsets {
+        String[] synsets = new String[64];
+        int size;
+        String[] nouns = new String[64];
+        int[] ids = new int[64];
+        int count;
+
+        private void addSynset(String synset) {
+            if (size == synsets.length)
+                synsets = Arrays.copyOf(synsets, 2 * size);
+            synsets[size++] = synset;
+        }
+
+        private void addNoun(String noun, int id) {
+            if (count == nouns.length) {
+                nouns = Arrays.copyOf(nouns, 2 * count);
+                ids = Arrays.copyOf(ids, 2 * count);
+            }
+            nouns[count] = noun;
+            ids[count] = id;
+            count++;
+        }
+    }
+
+    // the edges of one chunk of a hypernyms file
+    private static final class Edges {
+        int[] tails = new int[64];
+        int[] heads = new int[64];
+        int count;
+
+        private void add(int v, int w) {
+            if (count == tails.length) {
+                tails = Arrays.copyOf(tails, 2 * count);
+                heads = Arrays.copyOf(heads, 2 * count);
+            }
+            tails[count] = v;
+            heads[count] = w;
+            count++;
+        }
+    }
+
+    private WordNetParser() { }
+
+    // synset ids are line numbers; the first field of each line is not read
+    static Synsets parseSynsets(String path) {
+        MappedByteBuffer buffer = map(path);
+        int[] bounds = chunks(buffer);
+        Synsets[] parts = new Synsets[bounds.length - 1];
+
+        IntStream.range(0, parts.length).parallel()
+                .forEach(i -> parts[i] = parseSynsets(buffer, bounds[i], bounds[i + 1]));
+
+        Synsets synsets = parts[0];
+
+        for (int i = 1; i < parts.length; i++) {
+            int first = synsets.size;
+
+            for (int j = 0; j < parts[i].size; j++)
+                synsets.addSynset(parts[i].synsets[j]);
+
+            for (int j = 0; j < parts[i].count; j++)
+                synsets.addNoun(parts[i].nouns[j], first + parts[i].ids[j]);
+        }
+
+        return synsets;
+    }
+
+    // the hypernym digraph on V synsets
+    static CompactDigraph parseHypernyms(String path, int V) {
+        MappedByteBuffer buffer = map(path);
+        int[] bounds = chunks(buffer);
+        Edges[] parts = new Edges[bounds.length - 1];
+
+        IntStream.range(0, parts.length).parallel()
+                .forEach(i -> parts[i] = parseHypernyms(buffer, bounds[i], bounds[i + 1]));
+
+        int E = 0;
+        for (Edges part : parts)
+            E += part.count;
+
+        int[] tails = new int[E];
+        int[] heads = new int[E];
+        int count = 0;
+
+        for (Edges part : parts) {
+            System.arraycopy(part.tails, 0, tails, count, part.count);
+            System.arraycopy(part.heads, 0, heads, count, part.count);
+            count += part.count;
+        }
+
+        return CompactDigraph.fromEdges(V, tails, heads, E);
+    }
+
+    // lines "id,noun noun ...,gloss" in [from, to); ids are local to the chunk
+    private static Synsets parseSynsets(MappedByteBuffer buffer, int from, int to) {
+        Synsets synsets = new Synsets();
+        byte[] bytes = new byte[256];
+        int i = from;
+
+        while (i < to) {
+            int end = lineEnd(buffer, i, to);
+
+            if (end > i && !(end == i + 1 && buffer.get(i) == '\r')) {
+                int start = indexOf(buffer, ',', i, end) + 1;
+                int stop = indexOf(buffer, ',', start, end);
+
+                if (start == 0)
+                    throw new IllegalArgumentException("malformed synset at byte " + i);
+
+                if (stop < 0)
+                    stop = trimEnd(buffer, start, end);
+
+                if (stop - start > bytes.length)
+                    bytes = new byte[2 * (stop - start)];
+
+                for (int j = start; j < stop; j++)
+                    bytes[j - start] = buffer.get(j);
+
+                String synset = new String(bytes, 0, stop - start, StandardCharsets.UTF_8);
+                int id = synsets.size;
+                synsets.addSynset(synset);
+
+                for (int word = 0, space; word < synset.length(); word = space + 1) {
+                    space = synset.indexOf(' ', word);
+                    if (space < 0)
+                        space = synset.length();
+
+                    if (space > word)
+                        synsets.addNoun(synset.substring(word, space), id);
+                }
+            }
+
+            i = end + 1;
+        }
+
+        return synsets;
+    }
+
+    // lines "id,hypernym,hypernym,..." in [from, to)
+    private static Edges parseHypernyms(MappedByteBuffer buffer, int from, int to) {
+        Edges edges = new Edges();
+        int i = from;
+
+        while (i < to) {
+            int end = trimEnd(buffer, i, lineEnd(buffer, i, to));
+
+            if (end > i) {
+                int v = -1;
+                int value = -1;
+                boolean spaced = false;  // a space followed the digits of value
+
+                for (int j = i; j <= end; j++) {
+                    byte b = j < end ? buffer.get(j) : (byte) ',';
+
+                    if (b >= '0' && b <= '9' && !spaced)
+                        value = (value < 0 ? 0 : 10 * value) + (b - '0');
+                    else if (b == ',' && value >= 0) {
+                        if (v < 0)
+                            v = value;
+                        else
+                            edges.add(v, value);
+                        value = -1;
+                        spaced = false;
+                    } else if (b == ' ')
+                        spaced = value >= 0;
+                    else
+                        throw new IllegalArgumentException("malformed hypernym at byte " + j);
+                }
+            }
+
+            i = lineEnd(buffer, i, to) + 1;
+        }
+
+        return edges;
+    }
+
+    private static MappedByteBuffer map(String path) {
+        try {
+            FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+
+            try {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("could not read " + path, e);
+        }
+    }
+
+    // chunk boundaries: every chunk but the last ends just after a newline
+    private static int[] chunks(MappedByteBuffer buffer) {
+        int size = buffer.limit();
+        int n = size < PARALLEL_THRESHOLD ? 1 : Runtime.getRuntime().availableProcessors();
+        int[] bounds = new int[n + 1];
+        int count = 1;
+
+        for (int k = 1; k < n; k++) {
+            int at = Math.max(bounds[count - 1], (int) ((long) size * k / n));
+            int end = lineEnd(buffer, at, size);
+
+            if (end + 1 < size && end + 1 > bounds[count - 1])
+                bounds[count++] = end + 1;
+        }
+        bounds[count++] = size;
+
+        return Arrays.copyOf(bounds, count);
+    }
+
+    // position of the newline ending the line that contains i, or to
+    private static int lineEnd(MappedByteBuffer buffer, int i, int to) {
+        while (i < to && buffer.get(i) != '\n')
+            i++;
+        return i;
+    }
+
+    // end of [from, to) once a trailing carriage return is dropped
+    private static int trimEnd(MappedByteBuffer buffer, int from, int to) {
+        return to > from && buffer.get(to - 1) == '\r' ? to - 1 : to;
+    }
+
+    private static int indexOf(MappedByteBuffer buffer, char c, int from, int to) {
+        for (int i = from; i < to; i++)
+            if (buffer.get(i) == c)
+                return i;
+        return -1;
+    }
+}
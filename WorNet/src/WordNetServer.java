@@ -0,0 +1,269 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+
+/*************************************************************************
+ *  Execution:    java WordNetServer port synsets.txt hypernyms.txt [index]
+ *                java WordNetServer port wordnet.snapshot [index]
+ *
+ *  Serves one shared WordNet on a loopback TCP port. Each request is a
+ *  line and is answered by one line, in order:
+ *
+ *      distance nounA nounB    ->  the distance
+ *      sap nounA nounB         ->  the common ancestor synset
+ *      outcast noun noun ...   ->  the outcast
+ *
+ *  Errors are answered with "error" and a message. Clients may pipeline:
+ *  every line already buffered on a connection is submitted at once. A
+ *  single dispatcher thread owns the WordNet; it drains all pending
+ *  requests from every connection and groups the distance and sap requests
+ *  by their first noun, so the ancestors of that noun are computed once
+ *  for the whole group. Given an ancestor index saved by WordNet.main(),
+ *  the ancestors are read from it instead of searched for.
+ *
+ *************************************************************************/
+
+public class WordNetServer {
+    private final WordNet wordnet;
+    private final Outcast outcast;
+    private final ServerSocket server;
+    private final BlockingQueue<Request> requests = new LinkedBlockingQueue<Request>();
+    private final ExecutorService connections = Executors.newCachedThreadPool(WordNetServer::daemon);
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+    private final Thread dispatcher;
+    private volatile boolean closed;
+
+    private static final class Request {
+        private final String[] words;
+        private final CompletableFuture<String> response = new CompletableFuture<String>();
+
+        private Request(String line) {
+            words = line.trim().split("\\s+");
+        }
+    }
+
+    // listens on the loopback interface; port 0 picks a free port
+    public WordNetServer(WordNet wordnet, int port) throws IOException {
+        if (wordnet == null)
+            throw new java.lang.NullPointerException();
+
+        this.wordnet = wordnet;
+        this.outcast = new Outcast(wordnet);
+        this.server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+
+        dispatcher = daemon(this::dispatch);
+        daemon(this::accept).start();
+        dispatcher.start();
+    }
+
+    public int port() {
+        return server.getLocalPort();
+    }
+
+    // stops accepting, drops every connection and answers whatever is still
+    // queued with an error, so no connection thread stays blocked on a response
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        dispatcher.interrupt();
+
+        for (Socket socket : sockets)
+            closeQuietly(socket);
+
+        failPending();
+        connections.shutdownNow();
+    }
+
+    // a connection that queues requests after close() has drained the queue
+    // sees closed and drains it again
+    private void failPending() {
+        Request request;
+
+        while ((request = requests.poll()) != null)
+            request.response.complete("error server closed");
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+    private static Thread daemon(Runnable runnable) {
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = server.accept();
+                sockets.add(socket);
+
+                if (closed)
+                    closeQuietly(socket);
+                else
+                    connections.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (!closed)
+                    System.err.println("accept failed: " + e.getMessage());
+            }
+        }
+    }
+
+    // submits every line already received, then answers them in order
+    private void serve(Socket socket) {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            String line;
+
+            while ((line = in.readLine()) != null) {
+                List<Request> batch = new ArrayList<Request>();
+                batch.add(new Request(line));
+
+                while (in.ready() && (line = in.readLine()) != null)
+                    batch.add(new Request(line));
+
+                requests.addAll(batch);
+
+                if (closed)
+                    failPending();
+
+                for (Request request : batch)
+                    out.write(request.response.join() + "\n");
+                out.flush();
+            }
+        } catch (IOException e) {
+            // the client went away
+        } finally {
+            sockets.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    private void dispatch() {
+        List<Request> batch = new ArrayList<Request>();
+
+        while (!closed) {
+            try {
+                batch.add(requests.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            requests.drainTo(batch);
+
+            try {
+                answer(batch);
+            } catch (RuntimeException e) {
+                for (Request request : batch)
+                    request.response.complete("error " + e);
+            }
+            batch.clear();
+        }
+
+        failPending();
+    }
+
+    private void answer(List<Request> batch) {
+        Map<String, List<Request>> bySource = new LinkedHashMap<String, List<Request>>();
+
+        for (Request request : batch) {
+            String command = request.words[0];
+
+            try {
+                if ((command.equals("distance") || command.equals("sap")) && request.words.length == 3) {
+                    checkNoun(request.words[1]);
+                    checkNoun(request.words[2]);
+                    bySource.computeIfAbsent(request.words[1], k -> new ArrayList<Request>()).add(request);
+                } else if (command.equals("outcast") && request.words.length > 1) {
+                    String[] nouns = new String[request.words.length - 1];
+                    System.arraycopy(request.words, 1, nouns, 0, nouns.length);
+
+                    for (String noun : nouns)
+                        checkNoun(noun);
+
+                    request.response.complete(outcast.outcast(nouns));
+                } else
+                    request.response.complete("error unknown request");
+            } catch (IllegalArgumentException e) {
+                request.response.complete("error " + e.getMessage());
+            }
+        }
+
+        for (Map.Entry<String, List<Request>> group : bySource.entrySet()) {
+            List<Request> requests = group.getValue();
+            String[] targets = new String[requests.size()];
+
+            for (int i = 0; i < targets.length; i++)
+                targets[i] = requests.get(i).words[2];
+
+            SAP.Result[] paths = wordnet.paths(group.getKey(), targets);
+
+            for (int i = 0; i < targets.length; i++) {
+                Request request = requests.get(i);
+
+                if (request.words[0].equals("distance"))
+                    request.response.complete(Integer.toString(paths[i].length()));
+                else
+                    request.response.complete(wordnet.synset(paths[i].ancestor()));
+            }
+        }
+    }
+
+    private void checkNoun(String noun) {
+        if (!wordnet.isNoun(noun))
+            throw new IllegalArgumentException("not a noun: " + noun);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = Integer.parseInt(args[0]);
+        int files = args.length - 1;
+        String index = null;
+
+        // a trailing ancestor index is told apart from a hypernyms file by its header
+        if (files > 1 && AncestorIndex.isIndex(args[args.length - 1]))
+            index = args[files--];
+
+        WordNet wordnet = files > 1 ? new WordNet(args[1], args[2]) : WordNet.load(args[1]);
+
+        if (index != null)
+            wordnet.useIndex(AncestorIndex.load(index));
+
+        WordNetServer server = new WordNetServer(wordnet, port);
+
+        StdOut.println("listening on port " + server.port());
+
+        while (true) {
+            try {
+                Thread.sleep(Long.MAX_VALUE);
+            } catch (InterruptedException e) {
+                server.close();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,303 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+
+// binary image of a validated WordNet. After a fixed header come the int
+// sections (hypernym offsets and targets, synset string offsets, noun string
+// offsets, per-noun synset offsets and synset ids) and then the two UTF-8
+// string pools, so every int section stays 4-byte aligned in the mapping.
+// Nouns are stored in sorted order. The graph and noun-to-synset sections are
+// copied to the heap in bulk, as every query walks them; the strings stay in
+// the mapping and are only decoded when asked for.
+final class WordNetSnapshot {
+    private static final int MAGIC = 0x574e5331;  // "WNS1"
+    private static final int VERSION = 1;
+    private static final int HEADER = 7;  // ints
+    private static final int ACYCLIC = 1;
+    private static final int ROOTED = 2;
+
+    final CompactDigraph graph;
+    final Strings synsets;
+    final Strings nouns;
+    final int[] nounOffsets;
+    final int[] nounSynsets;
+
+    // consecutive UTF-8 strings in a mapped pool; the i-th spans bytes
+    // offsets[i] to offsets[i + 1]. Safe for concurrent readers.
+    static final class Strings {
+        private final ByteBuffer pool;
+        private final IntBuffer offsets;
+
+        private Strings(ByteBuffer pool, IntBuffer offsets) {
+            this.pool = pool;
+            this.offsets = offsets;
+        }
+
+        int size() {
+            return offsets.limit() - 1;
+        }
+
+        String get(int i) {
+            int from = offsets.get(i);
+            byte[] bytes = new byte[offsets.get(i + 1) - from];
+
+            ByteBuffer view = pool.duplicate();
+            view.position(from);
+            view.get(bytes);
+
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        // compares strings i and j as String.compareTo would. UTF-8 bytes sort
+        // in code point order, which only differs from UTF-16 order between
+        // supplementary characters and U+E000..U+FFFF, both of which start
+        // with a byte of 0xEE or more; only then are the strings decoded.
+        int compare(int i, int j) {
+            int a = offsets.get(i), aend = offsets.get(i + 1);
+            int b = offsets.get(j), bend = offsets.get(j + 1);
+
+            for (; a < aend && b < bend; a++, b++) {
+                int x = pool.get(a) & 0xff, y = pool.get(b) & 0xff;
+
+                if (x != y)
+                    return x >= 0xee || y >= 0xee ? get(i).compareTo(get(j)) : x - y;
+            }
+
+            return (aend - offsets.get(i)) - (bend - offsets.get(j));
+        }
+
+        // every string, decoded
+        String[] toArray() {
+            String[] strings = new String[size()];
+
+            for (int i = 0; i < strings.length; i++)
+                strings[i] = get(i);
+
+            return strings;
+        }
+    }
+
+    private WordNetSnapshot(CompactDigraph graph, Strings synsets, Strings nouns, int[] nounOffsets, int[] nounSynsets) {
+        this.graph = graph;
+        this.synsets = synsets;
+        this.nouns = nouns;
+        this.nounOffsets = nounOffsets;
+        this.nounSynsets = nounSynsets;
+    }
+
+    // the flags record the checks the graph passes now, so that read() can
+    // refuse the image of a graph that is not a rooted DAG
+    static void write(String path, CompactDigraph graph, String[] synsets, String[] nouns, int[] nounOffsets, int[] nounSynsets) throws IOException {
+        byte[][] synsetBytes = encode(synsets);
+        byte[][] nounBytes = encode(nouns);
+
+        int roots = 0;
+        for (int v = 0; v < graph.V(); v++)
+            if (graph.outdegree(v) == 0)
+                roots++;
+
+        int flags = (graph.hasCycle() ? 0 : ACYCLIC) | (roots <= 1 ? ROOTED : 0);
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16));
+
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(flags);
+            out.writeInt(graph.V());
+            out.writeInt(graph.E());
+            out.writeInt(nouns.length);
+            out.writeInt(nounSynsets.length);
+
+            writeInts(out, graph.offsets());
+            writeInts(out, graph.targets());
+            writeInts(out, offsets(synsetBytes));
+            writeInts(out, offsets(nounBytes));
+            writeInts(out, nounOffsets);
+            writeInts(out, nounSynsets);
+
+            for (byte[] bytes : synsetBytes)
+                out.write(bytes);
+            for (byte[] bytes : nounBytes)
+                out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    // checks the header, the section sizes, that every offset and vertex is
+    // in range, that the nouns are sorted and that the graph is a rooted DAG;
+    // that takes a pass over the int sections and the noun bytes but, in the
+    // usual case, decodes no string
+    static WordNetSnapshot read(String path) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        MappedByteBuffer buffer;
+
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            channel.close();
+        }
+
+        try {
+            return read(buffer);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("not a valid WordNet snapshot: " + path, e);
+        }
+    }
+
+    private static WordNetSnapshot read(ByteBuffer buffer) {
+        IntBuffer ints = buffer.asIntBuffer();
+
+        if (ints.remaining() < HEADER || ints.get() != MAGIC || ints.get() != VERSION)
+            throw new IllegalArgumentException("bad header");
+
+        int flags = ints.get();
+        if ((flags & ACYCLIC) == 0 || (flags & ROOTED) == 0)
+            throw new IllegalArgumentException("not a rooted DAG");
+
+        int V = ints.get();
+        int E = ints.get();
+        int N = ints.get();
+        int count = ints.get();
+
+        if (V < 0 || E < 0 || N < 0 || count < 0)
+            throw new IllegalArgumentException("negative size");
+
+        long intSection = 4L * (HEADER + (V + 1L) + E + (V + 1L) + 2 * (N + 1L) + count);
+        if (intSection > buffer.capacity())
+            throw new IllegalArgumentException("truncated");
+
+        int[] graphOffsets = readInts(ints, V + 1);
+        int[] targets = readInts(ints, E);
+        IntBuffer synsetOffsets = slice(ints, V + 1);
+        IntBuffer nounStringOffsets = slice(ints, N + 1);
+        int[] nounOffsets = readInts(ints, N + 1);
+        int[] nounSynsets = readInts(ints, count);
+
+        checkOffsets(graphOffsets, E);
+        checkOffsets(nounOffsets, count);
+        checkVertices(targets, V);
+        checkVertices(nounSynsets, V);
+
+        // every noun is in at least one synset, and its synset ids are sorted
+        for (int n = 0; n < N; n++) {
+            if (nounOffsets[n + 1] == nounOffsets[n])
+                throw new IllegalArgumentException("noun without synsets");
+
+            for (int i = nounOffsets[n] + 1; i < nounOffsets[n + 1]; i++)
+                if (nounSynsets[i] <= nounSynsets[i - 1])
+                    throw new IllegalArgumentException("unsorted synsets");
+        }
+
+        int synsetBytes = synsetOffsets.get(V);
+        int nounBytes = nounStringOffsets.get(N);
+        checkOffsets(synsetOffsets, synsetBytes);
+        checkOffsets(nounStringOffsets, nounBytes);
+
+        if (intSection + synsetBytes + nounBytes != buffer.capacity())
+            throw new IllegalArgumentException("bad string pools");
+
+        ByteBuffer synsetPool = slice(buffer, (int) intSection, synsetBytes);
+        ByteBuffer nounPool = slice(buffer, (int) intSection + synsetBytes, nounBytes);
+        Strings nouns = new Strings(nounPool, nounStringOffsets);
+
+        // NounIndex binary-searches the nouns
+        for (int n = 1; n < N; n++)
+            if (nouns.compare(n - 1, n) >= 0)
+                throw new IllegalArgumentException("unsorted nouns");
+
+        // the flags say what the writer checked; check it again, as a flipped
+        // target could have broken it
+        CompactDigraph graph = new CompactDigraph(graphOffsets, targets);
+
+        int roots = 0;
+        for (int v = 0; v < V; v++)
+            if (graph.outdegree(v) == 0)
+                roots++;
+
+        if (roots > 1 || graph.hasCycle())
+            throw new IllegalArgumentException("not a rooted DAG");
+
+        return new WordNetSnapshot(graph, new Strings(synsetPool, synsetOffsets), nouns, nounOffsets, nounSynsets);
+    }
+
+    private static byte[][] encode(String[] strings) {
+        byte[][] bytes = new byte[strings.length][];
+
+        for (int i = 0; i < strings.length; i++)
+            bytes[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+
+        return bytes;
+    }
+
+    private static int[] offsets(byte[][] bytes) {
+        int[] offsets = new int[bytes.length + 1];
+
+        for (int i = 0; i < bytes.length; i++)
+            offsets[i + 1] = offsets[i] + bytes[i].length;
+
+        return offsets;
+    }
+
+    // offsets must run from 0 up to end without decreasing
+    private static void checkOffsets(int[] offsets, int end) {
+        if (offsets[0] != 0 || offsets[offsets.length - 1] != end)
+            throw new IllegalArgumentException("bad offsets");
+
+        for (int i = 1; i < offsets.length; i++)
+            if (offsets[i] < offsets[i - 1])
+                throw new IllegalArgumentException("bad offsets");
+    }
+
+    private static void checkOffsets(IntBuffer offsets, int end) {
+        if (end < 0 || offsets.get(0) != 0 || offsets.get(offsets.limit() - 1) != end)
+            throw new IllegalArgumentException("bad offsets");
+
+        for (int i = 1; i < offsets.limit(); i++)
+            if (offsets.get(i) < offsets.get(i - 1))
+                throw new IllegalArgumentException("bad offsets");
+    }
+
+    private static void checkVertices(int[] vertices, int V) {
+        for (int v : vertices)
+            if (v < 0 || v >= V)
+                throw new IllegalArgumentException("bad vertex");
+    }
+
+    private static int[] readInts(IntBuffer ints, int n) {
+        int[] array = new int[n];
+        ints.get(array);
+        return array;
+    }
+
+    // the next n ints as a view, skipping past them
+    private static IntBuffer slice(IntBuffer ints, int n) {
+        IntBuffer view = ints.slice();
+        view.limit(n);
+        ints.position(ints.position() + n);
+        return view;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int from, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(from);
+        view.limit(from + length);
+        return view.slice();
+    }
+
+    private static void writeInts(DataOutputStream out, int[] array) throws IOException {
+        for (int x : array)
+            out.writeInt(x);
+    }
+}